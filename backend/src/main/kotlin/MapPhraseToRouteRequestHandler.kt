@@ -6,11 +6,30 @@ import com.google.gson.GsonBuilder
 import exception.HttpException
 import model.SimpleResponse
 import service.RouteService
+import util.PhoneticCodeCache
 import util.Region
+import util.SearchBudget
 import java.net.HttpURLConnection
 
 class MapPhraseToRouteRequestHandler : RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
+    companion object {
+        /**
+         * the time in ms kept from the remaining time of the lambda to build the response after the search
+         */
+        private val SEARCH_TIME_RESERVE = System.getenv("SEARCH_TIME_RESERVE_MS")?.toLong() ?: 1000
+
+        /**
+         * the number of search states a request may expand, unlimited by default
+         */
+        private val SEARCH_MAX_EXPANSIONS = System.getenv("SEARCH_MAX_EXPANSIONS")?.toLong() ?: Long.MAX_VALUE
+
+        /**
+         * header which is set to true if the search budget was exhausted, so the route is the best one found until then
+         */
+        private val PARTIAL_ROUTE_HEADER = "X-Partial-Route"
+    }
+
     private val routeService = RouteService()
 
     private val gson = GsonBuilder()
@@ -30,8 +49,18 @@ class MapPhraseToRouteRequestHandler : RequestHandler<APIGatewayProxyRequestEven
 
         context.logger.log("REGION: $region\n")
 
+        val budget = SearchBudget(context.remainingTimeInMillis - SEARCH_TIME_RESERVE, SEARCH_MAX_EXPANSIONS)
+
         return try {
-            sendResponse(HttpURLConnection.HTTP_OK, gson.toJson(routeService.mapPhraseToRoute(phrase, phoneticFirst == "true", region)))
+            val route = routeService.mapPhraseToRoute(phrase, phoneticFirst == "true", region, budget)
+            val codeCache = PhoneticCodeCache.SHARED
+            context.logger.log("PHONETIC CODE CACHE: ${codeCache.hits} hits, ${codeCache.misses} misses\n")
+            if (route.partial) {
+                context.logger.log("PARTIAL ROUTE after ${budget.expansions} expansions\n")
+            }
+            sendResponse(HttpURLConnection.HTTP_OK, gson.toJson(route.places)).apply {
+                headers = mapOf(PARTIAL_ROUTE_HEADER to route.partial.toString())
+            }
         } catch (e: HttpException) {
             sendResponse(e.statusCode, gson.toJson(e))
         } catch (e: Exception) {
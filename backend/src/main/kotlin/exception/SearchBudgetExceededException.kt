@@ -0,0 +1,10 @@
+package exception
+
+import java.net.HttpURLConnection
+
+/**
+ * thrown if a phrase couldn't be mapped to a route within the time or the number of search steps a request may use
+ */
+class SearchBudgetExceededException(
+    override val message: String
+) : HttpException(HttpURLConnection.HTTP_UNAVAILABLE, message)
@@ -0,0 +1,10 @@
+package model
+
+/**
+ * the id and the name of a place, which is all the phonetic matching needs
+ */
+data class PlaceName(
+    val id: Long,
+
+    val name: String
+)
@@ -0,0 +1,10 @@
+package model
+
+data class Route(
+    val places: List<Place>,
+
+    /**
+     * true if the search budget was exhausted, so the route is the best one found until then
+     */
+    val partial: Boolean
+)
@@ -1,12 +1,18 @@
 package persistence
 
 import model.Place
+import model.PlaceName
 import org.jetbrains.exposed.dao.id.EntityID
 import org.jetbrains.exposed.dao.with
+import org.jetbrains.exposed.sql.Column
 import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.JoinType
 import org.jetbrains.exposed.sql.StdOutSqlLogger
+import org.jetbrains.exposed.sql.Table
 import org.jetbrains.exposed.sql.addLogger
 import org.jetbrains.exposed.sql.lowerCase
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.selectAll
 import org.jetbrains.exposed.sql.transactions.transaction
 import persistence.dao.dach.*
 import persistence.dao.us.Places
@@ -54,6 +60,54 @@ class DachPlaceRepository : PlaceRepository {
         }
     }
 
+    override fun findAllWhereNysiisCodesMatch(nysiisCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            NysiisEncodedDachPlaces,
+            NysiisEncodedDachPlaces.code,
+            NysiisEncodedDachPlaces.place,
+            nysiisCodes
+        )
+    }
+
+    override fun findAllWhereBeiderMorseCodesMatch(beiderMorseCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            BeiderMorseEncodedDachPlaces,
+            BeiderMorseEncodedDachPlaces.code,
+            BeiderMorseEncodedDachPlaces.place,
+            beiderMorseCodes
+        )
+    }
+
+    override fun findAllWhereSoundexCodesMatch(soundexCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            SoundexEncodedDachPlaces,
+            SoundexEncodedDachPlaces.code,
+            SoundexEncodedDachPlaces.place,
+            soundexCodes
+        )
+    }
+
+    /**
+     * selects only the code, id and name of the places of all passed codes with a single query, without loading
+     * entities
+     */
+    private fun findPlaceNames(
+        encodedPlaces: Table,
+        code: Column<String>,
+        place: Column<EntityID<Long>>,
+        codes: Collection<String>
+    ): Map<String, List<PlaceName>> {
+        if (codes.isEmpty()) {
+            return emptyMap()
+        }
+        return transaction {
+            encodedPlaces.join(DachPlaces, JoinType.INNER, place, DachPlaces.id)
+                .slice(code, DachPlaces.id, DachPlaces.name)
+                .select { code inList codes }
+                .groupBy({ it[code] }, { PlaceName(it[DachPlaces.id].value, it[DachPlaces.name]) })
+        }
+    }
+
     override fun findAllForIds(allPlaceIds: Set<Long>): Map<Long, Place> {
         return transaction {
             try {
@@ -74,16 +128,15 @@ class DachPlaceRepository : PlaceRepository {
         }
     }
 
-    override fun findAll(): List<Place> {
-        return transaction {
-            try {
-                DachPlaceDao
-                    .all()
-                    .map { it.toModel() }
-                    .toList()
-            } catch (e: IllegalArgumentException) {
-                emptyList()
-            }
+    override fun forEachPlace(fetchSize: Int, action: (Place) -> Unit) {
+        transaction {
+            DachPlaces
+                .selectAll()
+                .orderBy(DachPlaces.id)
+                .fetchSize(fetchSize)
+                .forEach {
+                    action(Place(it[DachPlaces.id].value, it[DachPlaces.name], it[DachPlaces.latitude], it[DachPlaces.longitude]))
+                }
         }
     }
 }
\ No newline at end of file
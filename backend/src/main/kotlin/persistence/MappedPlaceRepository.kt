@@ -0,0 +1,24 @@
+package persistence
+
+import model.Place
+
+/**
+ * PlaceRepository which resolves place ids with a memory mapped PlaceTable, so building a route doesn't need a database
+ * connection. The phonetic queries are passed on to the delegate.
+ */
+class MappedPlaceRepository(
+    private val placeTable: PlaceTable,
+    private val delegate: PlaceRepository
+) : PlaceRepository by delegate {
+
+    override fun findAllForIds(allPlaceIds: Set<Long>): Map<Long, Place> {
+        val places = mutableMapOf<Long, Place>()
+        for (id in allPlaceIds) {
+            val row = placeTable.findRow(id)
+            if (row >= 0) {
+                places[id] = placeTable.getPlace(row)
+            }
+        }
+        return places
+    }
+}
@@ -0,0 +1,215 @@
+package persistence
+
+import model.Place
+import org.apache.commons.codec.language.Nysiis
+import org.apache.commons.codec.language.Soundex
+import org.apache.commons.codec.language.bm.BeiderMorseEncoder
+import util.mapReadOnly
+import util.trie.ExternalWordSorter
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.IntBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * The phonetic algorithms the places are encoded with, the ordinal is the section of the algorithm in a PhoneticIndex
+ */
+enum class PhoneticCode {
+    NYSIIS, BEIDER_MORSE, SOUNDEX
+}
+
+/**
+ * Read-only index from the phonetic codes of the places to their ids, which is created next to the place table by
+ * RunCreateTrie. It replaces the encoded place tables of the database, so phonetic matches don't need a query.
+ *
+ * layout: magic, version, section count, padding, the offset of every section padded to 16 bytes, then one section per
+ * PhoneticCode: code count, id count, offsets of the codes in the code pool (int, one more than codes), offsets of the
+ * ids of the codes (int, one more than codes), ascending place ids of every code (int), UTF-8 encoded codes in
+ * ascending order, padded to 4 bytes
+ */
+class PhoneticIndex(private val buffer: ByteBuffer) {
+
+    companion object {
+        val MAGIC = 0x50484F4E // "PHON"
+        val VERSION = 1
+        val HEADER_SIZE = 16
+        val SECTION_TABLE_SIZE = 16
+
+        fun map(path: Path): PhoneticIndex {
+            return PhoneticIndex(mapReadOnly(path))
+        }
+    }
+
+    private val sections: List<Section>
+
+    init {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != PhoneticCode.values().size) {
+            throw IllegalArgumentException("Unsupported phonetic index")
+        }
+        sections = PhoneticCode.values().map { Section(buffer.getInt(HEADER_SIZE + it.ordinal * 4)) }
+    }
+
+    /**
+     * returns the ascending ids of all places with the passed code
+     */
+    fun findIds(phoneticCode: PhoneticCode, code: String): IntArray {
+        return sections[phoneticCode.ordinal].findIds(code)
+    }
+
+    private inner class Section(offset: Int) {
+        private val codeCount = buffer.getInt(offset)
+        private val codeOffsets: IntBuffer
+        private val idOffsets: IntBuffer
+        private val ids: IntBuffer
+        private val codePoolOffset: Int
+
+        init {
+            val idCount = buffer.getInt(offset + 4)
+            var position = offset + 8
+            codeOffsets = view(position, (codeCount + 1) * 4).asIntBuffer()
+            position += (codeCount + 1) * 4
+            idOffsets = view(position, (codeCount + 1) * 4).asIntBuffer()
+            position += (codeCount + 1) * 4
+            ids = view(position, idCount * 4).asIntBuffer()
+            codePoolOffset = position + idCount * 4
+        }
+
+        /**
+         * binary search for the code, the codes are ordered like strings
+         */
+        fun findIds(code: String): IntArray {
+            var low = 0
+            var high = codeCount - 1
+            while (low <= high) {
+                val mid = (low + high).ushr(1)
+                val comparison = getCode(mid).compareTo(code)
+                when {
+                    comparison < 0 -> low = mid + 1
+                    comparison > 0 -> high = mid - 1
+                    else -> return IntArray(idOffsets.get(mid + 1) - idOffsets.get(mid)) { ids.get(idOffsets.get(mid) + it) }
+                }
+            }
+            return IntArray(0)
+        }
+
+        private fun getCode(index: Int): String {
+            val start = codeOffsets.get(index)
+            return StandardCharsets.UTF_8.decode(view(codePoolOffset + start, codeOffsets.get(index + 1) - start)).toString()
+        }
+    }
+
+    private fun view(offset: Int, length: Int): ByteBuffer {
+        val view = buffer.duplicate()
+        view.position(offset)
+        view.limit(offset + length)
+        return view.slice()
+    }
+}
+
+fun savePhoneticIndex(out: OutputStream, places: Collection<Place>) {
+    PhoneticIndexWriter().use { writer ->
+        places.forEach { writer.add(it) }
+        writer.writeTo(out)
+    }
+}
+
+/**
+ * Creates a PhoneticIndex. The places are encoded with the same algorithms as in the database migrations, the codes
+ * are sorted externally, so the places don't need to be kept in memory.
+ */
+class PhoneticIndexWriter(chunkSize: Int = 500_000) : Closeable {
+    private val beiderMorseEncoder = BeiderMorseEncoder()
+    private val nysiisEncoder = Nysiis()
+    private val soundexEncoder = Soundex()
+    private val sorters = PhoneticCode.values().map { ExternalWordSorter(chunkSize) }
+
+    fun add(place: Place) {
+        val id = place.id.toInt()
+        sorters[PhoneticCode.NYSIIS.ordinal].add(nysiisEncoder.encode(place.name), id)
+        beiderMorseEncoder.encode(place.name).split("|").forEach {
+            sorters[PhoneticCode.BEIDER_MORSE.ordinal].add(it, id)
+        }
+        try {
+            sorters[PhoneticCode.SOUNDEX.ordinal].add(soundexEncoder.encode(place.name), id)
+        } catch (e: IllegalArgumentException) {
+            // Soundex can't map this name, but beider morse and nysiis are able to handle it
+        }
+    }
+
+    fun writeTo(out: OutputStream) {
+        val sectionFiles = sorters.map { writeSection(it) }
+        try {
+            val data = DataOutputStream(out)
+            data.writeInt(PhoneticIndex.MAGIC)
+            data.writeInt(PhoneticIndex.VERSION)
+            data.writeInt(sectionFiles.size)
+            data.writeInt(0)
+            var offset = PhoneticIndex.HEADER_SIZE + PhoneticIndex.SECTION_TABLE_SIZE
+            for (i in 0 until PhoneticIndex.SECTION_TABLE_SIZE / 4) {
+                data.writeInt(if (i < sectionFiles.size) offset else 0)
+                offset += if (i < sectionFiles.size) Files.size(sectionFiles[i]).toInt() else 0
+            }
+            sectionFiles.forEach { Files.copy(it, data) }
+            data.flush()
+            data.close()
+        } finally {
+            sectionFiles.forEach { Files.deleteIfExists(it) }
+        }
+    }
+
+    /**
+     * writes the section of the sorted codes to a temporary file, every column is buffered in its own temporary file
+     * until the counts are known
+     */
+    private fun writeSection(sorter: ExternalWordSorter): Path {
+        val columnFiles = List(4) { Files.createTempFile("phonetic", ".column") }
+        try {
+            val columns = columnFiles.map { DataOutputStream(BufferedOutputStream(Files.newOutputStream(it))) }
+            val (codeOffsets, idOffsets, ids, codes) = columns
+            var codeCount = 0
+            var idCount = 0
+            var lastCode: String? = null
+            var lastId = -1
+            sorter.forEachSorted { code, id ->
+                if (code != lastCode) {
+                    codeOffsets.writeInt(codes.size())
+                    idOffsets.writeInt(idCount)
+                    codes.write(code.toByteArray(StandardCharsets.UTF_8))
+                    codeCount++
+                    lastCode = code
+                } else if (id == lastId) {
+                    // beider morse may encode a name to the same code multiple times
+                    return@forEachSorted
+                }
+                ids.writeInt(id)
+                idCount++
+                lastId = id
+            }
+            codeOffsets.writeInt(codes.size())
+            idOffsets.writeInt(idCount)
+            while (codes.size() % 4 != 0) {
+                codes.write(0)
+            }
+            columns.forEach { it.close() }
+
+            val sectionFile = Files.createTempFile("phonetic", ".section")
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(sectionFile))).use { section ->
+                section.writeInt(codeCount)
+                section.writeInt(idCount)
+                columnFiles.forEach { Files.copy(it, section) }
+            }
+            return sectionFile
+        } finally {
+            columnFiles.forEach { Files.deleteIfExists(it) }
+        }
+    }
+
+    override fun close() {
+        sorters.forEach { it.close() }
+    }
+}
@@ -0,0 +1,61 @@
+package persistence
+
+import model.Place
+import model.PlaceName
+
+/**
+ * PlaceRepository which answers the phonetic queries with a memory mapped PhoneticIndex and builds the places from the
+ * PlaceTable, so phonetic matching doesn't need a database connection. The other queries are passed on to the delegate.
+ */
+class PhoneticIndexPlaceRepository(
+    private val phoneticIndex: PhoneticIndex,
+    private val placeTable: PlaceTable,
+    private val delegate: PlaceRepository
+) : PlaceRepository by delegate {
+
+    override fun findAllWhereNysiisCodeMatches(nysiisCode: String): List<Place> {
+        return toPlaces(phoneticIndex.findIds(PhoneticCode.NYSIIS, nysiisCode))
+    }
+
+    override fun findAllWhereBeiderMorseCodeMatches(beiderMorseCodes: List<String>): List<Place> {
+        return toPlaces(
+            beiderMorseCodes
+                .flatMap { phoneticIndex.findIds(PhoneticCode.BEIDER_MORSE, it).asList() }
+                .distinct()
+                .toIntArray()
+        )
+    }
+
+    override fun findAllWhereSoundexCodeMatches(soundexCode: String): List<Place> {
+        return toPlaces(phoneticIndex.findIds(PhoneticCode.SOUNDEX, soundexCode))
+    }
+
+    override fun findAllWhereNysiisCodesMatch(nysiisCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return nysiisCodes.associateWith { toPlaceNames(phoneticIndex.findIds(PhoneticCode.NYSIIS, it)) }
+    }
+
+    override fun findAllWhereBeiderMorseCodesMatch(beiderMorseCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return beiderMorseCodes.associateWith { toPlaceNames(phoneticIndex.findIds(PhoneticCode.BEIDER_MORSE, it)) }
+    }
+
+    override fun findAllWhereSoundexCodesMatch(soundexCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return soundexCodes.associateWith { toPlaceNames(phoneticIndex.findIds(PhoneticCode.SOUNDEX, it)) }
+    }
+
+    private fun toPlaceNames(ids: IntArray): List<PlaceName> {
+        val placeNames = ArrayList<PlaceName>(ids.size)
+        for (id in ids) {
+            val row = placeTable.findRow(id.toLong())
+            if (row >= 0) {
+                placeNames.add(PlaceName(id.toLong(), placeTable.getName(row)))
+            }
+        }
+        return placeNames
+    }
+
+    private fun toPlaces(ids: IntArray): List<Place> {
+        return ids.map { placeTable.findRow(it.toLong()) }
+            .filter { it >= 0 }
+            .map { placeTable.getPlace(it) }
+    }
+}
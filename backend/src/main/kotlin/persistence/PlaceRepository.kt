@@ -1,6 +1,7 @@
 package persistence
 
 import model.Place
+import model.PlaceName
 import org.jetbrains.exposed.dao.id.EntityID
 import org.jetbrains.exposed.sql.Database
 import org.jetbrains.exposed.sql.lowerCase
@@ -19,5 +20,35 @@ interface PlaceRepository {
     fun findAllWhereBeiderMorseCodeMatches(beiderMorseCodes: List<String>): List<Place>
     fun findAllWhereSoundexCodeMatches(soundexCode: String): List<Place>
     fun findAllForIds(allPlaceIds: Set<Long>): Map<Long, Place>
-    fun findAll(): List<Place>
+
+    /**
+     * Finds the ids and names of the places of all passed Nysiis codes at once, grouped by their code. Repositories
+     * backed by a database override it to resolve all codes with a single projection query.
+     */
+    fun findAllWhereNysiisCodesMatch(nysiisCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return nysiisCodes.associateWith { code -> findAllWhereNysiisCodeMatches(code).map { PlaceName(it.id, it.name) } }
+    }
+
+    /**
+     * Finds the ids and names of the places of all passed Beider-Morse codes at once, grouped by their code.
+     */
+    fun findAllWhereBeiderMorseCodesMatch(beiderMorseCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return beiderMorseCodes.associateWith { code ->
+            findAllWhereBeiderMorseCodeMatches(listOf(code)).map { PlaceName(it.id, it.name) }
+        }
+    }
+
+    /**
+     * Finds the ids and names of the places of all passed Soundex codes at once, grouped by their code.
+     */
+    fun findAllWhereSoundexCodesMatch(soundexCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return soundexCodes.associateWith { code -> findAllWhereSoundexCodeMatches(code).map { PlaceName(it.id, it.name) } }
+    }
+
+    /**
+     * Streams all places ordered by their id, without keeping them in memory.
+     *
+     * @param fetchSize the number of rows fetched from the database at once.
+     */
+    fun forEachPlace(fetchSize: Int, action: (Place) -> Unit)
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package persistence
+
+import model.Place
+import util.mapReadOnly
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.DoubleBuffer
+import java.nio.IntBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Columnar read-only table of places, which is created next to the tries by RunCreateTrie. It contains everything
+ * that is necessary to build a route from place ids, without querying the database.
+ *
+ * layout: magic, version, place count, padding, latitudes (double), longitudes (double), ascending place ids (int), offsets
+ * of the names in the name pool (int, one more than places to mark the end of the last name), UTF-8 encoded names
+ */
+class PlaceTable(private val buffer: ByteBuffer) {
+
+    companion object {
+        val MAGIC = 0x504C4345 // "PLCE"
+        val VERSION = 1
+        val HEADER_SIZE = 16
+        val COUNT_OFFSET = 8
+
+        fun map(path: Path): PlaceTable {
+            return PlaceTable(mapReadOnly(path))
+        }
+    }
+
+    val size: Int
+    private val latitudes: DoubleBuffer
+    private val longitudes: DoubleBuffer
+    private val ids: IntBuffer
+    private val nameOffsets: IntBuffer
+    private val namePoolOffset: Int
+
+    init {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw IllegalArgumentException("Unsupported place table")
+        }
+        size = buffer.getInt(COUNT_OFFSET)
+        var offset = HEADER_SIZE
+        latitudes = view(offset, size * 8).asDoubleBuffer()
+        offset += size * 8
+        longitudes = view(offset, size * 8).asDoubleBuffer()
+        offset += size * 8
+        ids = view(offset, size * 4).asIntBuffer()
+        offset += size * 4
+        nameOffsets = view(offset, (size + 1) * 4).asIntBuffer()
+        namePoolOffset = offset + (size + 1) * 4
+    }
+
+    private fun view(offset: Int, length: Int): ByteBuffer {
+        val view = buffer.duplicate()
+        view.position(offset)
+        view.limit(offset + length)
+        return view.slice()
+    }
+
+    /**
+     * binary search for the row of the passed id, returns -1 if there is no such place
+     */
+    fun findRow(id: Long): Int {
+        var low = 0
+        var high = size - 1
+        while (low <= high) {
+            val mid = (low + high).ushr(1)
+            val midId = ids.get(mid).toLong()
+            when {
+                midId < id -> low = mid + 1
+                midId > id -> high = mid - 1
+                else -> return mid
+            }
+        }
+        return -1
+    }
+
+    fun getPlace(row: Int): Place {
+        return Place(ids.get(row).toLong(), getName(row), latitudes.get(row), longitudes.get(row))
+    }
+
+    fun getName(row: Int): String {
+        val name = view(namePoolOffset + nameOffsets.get(row), nameOffsets.get(row + 1) - nameOffsets.get(row))
+        return StandardCharsets.UTF_8.decode(name).toString()
+    }
+}
+
+fun savePlaceTable(out: OutputStream, places: Collection<Place>) {
+    PlaceTableWriter().use { writer ->
+        places.sortedBy { it.id }.forEach { writer.add(it) }
+        writer.writeTo(out)
+    }
+}
+
+/**
+ * Creates a PlaceTable from places that are added ordered by their id. Every column is buffered in its own temporary
+ * file until the table is written, so the places don't need to be kept in memory.
+ */
+class PlaceTableWriter : Closeable {
+    private val columnFiles = List(5) { Files.createTempFile("places", ".column") }
+    private val columns = columnFiles.map { DataOutputStream(BufferedOutputStream(Files.newOutputStream(it))) }
+    private val latitudes = columns[0]
+    private val longitudes = columns[1]
+    private val ids = columns[2]
+    private val nameOffsets = columns[3]
+    private val names = columns[4]
+    private var size = 0
+    private var lastId = Long.MIN_VALUE
+
+    fun add(place: Place) {
+        if (place.id <= lastId) {
+            throw IllegalArgumentException("Places must be added ordered by id, ${place.id} was added after $lastId")
+        }
+        lastId = place.id
+        latitudes.writeDouble(place.latitude)
+        longitudes.writeDouble(place.longitude)
+        ids.writeInt(place.id.toInt())
+        nameOffsets.writeInt(names.size())
+        names.write(place.name.toByteArray(StandardCharsets.UTF_8))
+        size++
+    }
+
+    fun writeTo(out: OutputStream) {
+        nameOffsets.writeInt(names.size())
+        columns.forEach { it.close() }
+        val data = DataOutputStream(out)
+        data.writeInt(PlaceTable.MAGIC)
+        data.writeInt(PlaceTable.VERSION)
+        data.writeInt(size)
+        data.writeInt(0)
+        columnFiles.forEach { Files.copy(it, data) }
+        data.flush()
+        data.close()
+    }
+
+    override fun close() {
+        columns.forEach { it.close() }
+        columnFiles.forEach { Files.deleteIfExists(it) }
+    }
+}
@@ -1,10 +1,16 @@
 package persistence
 
 import model.Place
+import model.PlaceName
 import org.jetbrains.exposed.dao.id.EntityID
 import org.jetbrains.exposed.dao.with
+import org.jetbrains.exposed.sql.Column
 import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.JoinType
+import org.jetbrains.exposed.sql.Table
 import org.jetbrains.exposed.sql.lowerCase
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.selectAll
 import org.jetbrains.exposed.sql.transactions.transaction
 import persistence.dao.us.*
 
@@ -51,6 +57,54 @@ class UsPlaceRepository : PlaceRepository {
         }
     }
 
+    override fun findAllWhereNysiisCodesMatch(nysiisCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            NysiisEncodedPlaces,
+            NysiisEncodedPlaces.code,
+            NysiisEncodedPlaces.place,
+            nysiisCodes
+        )
+    }
+
+    override fun findAllWhereBeiderMorseCodesMatch(beiderMorseCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            BeiderMorseEncodedPlaces,
+            BeiderMorseEncodedPlaces.code,
+            BeiderMorseEncodedPlaces.place,
+            beiderMorseCodes
+        )
+    }
+
+    override fun findAllWhereSoundexCodesMatch(soundexCodes: Collection<String>): Map<String, List<PlaceName>> {
+        return findPlaceNames(
+            SoundexEncodedPlaces,
+            SoundexEncodedPlaces.code,
+            SoundexEncodedPlaces.place,
+            soundexCodes
+        )
+    }
+
+    /**
+     * selects only the code, id and name of the places of all passed codes with a single query, without loading
+     * entities
+     */
+    private fun findPlaceNames(
+        encodedPlaces: Table,
+        code: Column<String>,
+        place: Column<EntityID<Long>>,
+        codes: Collection<String>
+    ): Map<String, List<PlaceName>> {
+        if (codes.isEmpty()) {
+            return emptyMap()
+        }
+        return transaction {
+            encodedPlaces.join(Places, JoinType.INNER, place, Places.id)
+                .slice(code, Places.id, Places.name)
+                .select { code inList codes }
+                .groupBy({ it[code] }, { PlaceName(it[Places.id].value, it[Places.name]) })
+        }
+    }
+
     override fun findAllForIds(allPlaceIds: Set<Long>): Map<Long, Place> {
         return transaction {
             try {
@@ -71,16 +125,15 @@ class UsPlaceRepository : PlaceRepository {
         }
     }
 
-    override fun findAll(): List<Place> {
-        return transaction {
-            try {
-                PlaceDao
-                    .all()
-                    .map { it.toModel() }
-                    .toList()
-            } catch (e: IllegalArgumentException) {
-                emptyList()
-            }
+    override fun forEachPlace(fetchSize: Int, action: (Place) -> Unit) {
+        transaction {
+            Places
+                .selectAll()
+                .orderBy(Places.id)
+                .fetchSize(fetchSize)
+                .forEach {
+                    action(Place(it[Places.id].value, it[Places.name], it[Places.latitude], it[Places.longitude]))
+                }
         }
     }
 }
\ No newline at end of file
@@ -1,56 +1,165 @@
 package service
 
 import exception.HttpException
-import model.Place
+import model.Route
 import persistence.DachPlaceRepository
+import persistence.MappedPlaceRepository
+import persistence.PhoneticIndex
+import persistence.PhoneticIndexPlaceRepository
+import persistence.PlaceRepository
+import persistence.PlaceTable
 import persistence.UsPlaceRepository
+import util.Matcher
 import util.MatcherType
+import util.PhoneticCodeCache
 import util.PhoneticMatcher
 import util.PhraseSearch
+import util.PrefetchingMatcher
 import util.Region
+import util.RegionRegistry
+import util.SearchBudget
+import util.trie.LevenshteinMatcher
 import util.trie.Trie
+import util.trie.TrieEngine
 import util.trie.TrieMatcher
 import java.io.BufferedInputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.Executors
 import java.util.zip.GZIPInputStream
 
 class PhraseSearchService {
-    private val usTrie = loadTrie("/US.trie")
-    private val dachTrie = loadTrie("/DACH.trie")
 
-    private val usPlaceRepository = UsPlaceRepository()
-    private val dachPlaceRepository = DachPlaceRepository()
+    companion object {
+        /**
+         * the memory the loaded tries may use in MB, if they need more the least recently used regions are unloaded
+         */
+        private val TRIE_MEMORY_BUDGET = System.getenv("TRIE_MEMORY_BUDGET_MB")?.toLong()?.times(1024 * 1024)
+            ?: Long.MAX_VALUE
 
+        /**
+         * the number of threads matching the depths of a phrase in parallel, 1 matches them one after the other
+         */
+        private val MATCHER_PARALLELISM = System.getenv("MATCHER_PARALLELISM")?.toInt() ?: 1
+
+        /**
+         * the number of best candidates the PhraseSearch keeps at every depth of the phrase, by default all of them.
+         * it bounds the memory and the work per depth of every matcher type. the TRIE matcher additionally only
+         * expands that many of the best trie nodes at every depth
+         */
+        private val SEARCH_BEAM_WIDTH = System.getenv("SEARCH_BEAM_WIDTH")?.toInt() ?: Int.MAX_VALUE
+    }
+
+    private val tries = RegionRegistry(TRIE_MEMORY_BUDGET, Trie::byteSize) { region: Region -> loadTrie(region) }
+
+    private val usPlaceRepository = loadPlaceRepository(Region.US, UsPlaceRepository())
+    private val dachPlaceRepository = loadPlaceRepository(Region.DACH, DachPlaceRepository())
+
+    private val phoneticCodeCache = PhoneticCodeCache.SHARED
+
+    private val prefetchExecutor = if (MATCHER_PARALLELISM > 1) {
+        Executors.newFixedThreadPool(MATCHER_PARALLELISM) { runnable ->
+            Thread(runnable, "matcher-prefetch").apply { isDaemon = true }
+        }
+    } else {
+        null
+    }
+
+    /**
+     * Maps the passed phrase to a route with the passed matcher. The route is partial if the budget was exhausted before
+     * the search finished, null is returned if no route was found.
+     */
     @Throws(HttpException::class)
-    fun mapPhraseToRoute(search: String, region: Region, matcherType: MatcherType): List<Place>? {
-        val (trie, placeRepository) = when (region) {
-            Region.US -> Pair(usTrie, usPlaceRepository)
-            Region.DACH -> Pair(dachTrie, dachPlaceRepository)
+    fun mapPhraseToRoute(search: String, region: Region, matcherType: MatcherType, budget: SearchBudget): Route? {
+        val placeRepository = when (region) {
+            Region.US -> usPlaceRepository
+            Region.DACH -> dachPlaceRepository
         }
-        val matcher = when (matcherType) {
-            MatcherType.TRIE -> TrieMatcher(search, trie)
-            MatcherType.PHONETIC -> PhoneticMatcher(search, placeRepository)
+        val trie = if (matcherType == MatcherType.PHONETIC) null else tries.get(region)
+        // the phonetic matches of all words are looked up once, all phonetic matchers of the search share them
+        val words = PhoneticMatcher.splitWords(search)
+        val phoneticMatches = if (matcherType == MatcherType.PHONETIC) {
+            PhoneticMatcher.findPhoneticMatches(words, placeRepository, phoneticCodeCache)
+        } else {
+            null
         }
+        val createMatcher: () -> Matcher = {
+            when (matcherType) {
+                MatcherType.TRIE -> TrieMatcher(search, trie!!, budget = budget, beamWidth = SEARCH_BEAM_WIDTH)
+                MatcherType.LEVENSHTEIN -> LevenshteinMatcher(search, trie!!, budget = budget)
+                MatcherType.PHONETIC -> PhoneticMatcher(words, phoneticMatches!!, budget)
+            }
+        }
+        val prefetchingMatcher = prefetchExecutor?.let { PrefetchingMatcher(it, createMatcher) }
+        val matcher = prefetchingMatcher ?: createMatcher()
 
-        val results = PhraseSearch(matcher).search()
-        if (results.isEmpty()) {
-            return null
+        val phraseSearch = PhraseSearch(matcher, budget = budget, bestFirst = true, beamWidth = SEARCH_BEAM_WIDTH)
+        // only the best route is calculated, the other routes would be calculated when the iterator is advanced
+        val bestResult = try {
+            val routes = phraseSearch.findRoutes()
+            if (!routes.hasNext()) {
+                return null
+            }
+            routes.next()
+        } finally {
+            // the best first search doesn't need the depths which are worse than the best route
+            prefetchingMatcher?.close()
         }
-        val bestResult = results[0] //TODO if we want route matching don't ignore the other 99
 
         val allPlaceIds = bestResult.map { it.toLong() }.toSet()
         val placeMappings = placeRepository.findAllForIds(allPlaceIds)
 
-        return bestResult.map { placeMappings[it.toLong()]!! }
+        return Route(bestResult.map { placeMappings[it.toLong()]!! }, phraseSearch.isPartial)
+    }
+
+    /**
+     * Loads the trie of the passed region when it is used for the first time or again after it was evicted. The
+     * <REGION>_TRIE_ENGINE environment variable (e.g. US_TRIE_ENGINE) selects the trie implementation, it defaults to
+     * the binary trie.
+     */
+    private fun loadTrie(region: Region): Trie {
+        val engine = TrieEngine.fromId(System.getenv("${region.name}_TRIE_ENGINE")) ?: TrieEngine.BINARY
+        return loadTrie(region.name + engine.fileExtension)
     }
 
-    private fun loadTrie(filePath: String): Trie {
+    /**
+     * Loads the trie with the passed file name. If the TRIE_DIRECTORY environment variable points to a directory
+     * containing an uncompressed trie file, it is memory mapped. Otherwise the GZIP compressed trie is read from the
+     * classpath.
+     */
+    private fun loadTrie(fileName: String): Trie {
+        val triePath = findInTrieDirectory(fileName)
+        if (triePath != null) {
+            return Trie.map(triePath)
+        }
+
         val input =
             GZIPInputStream(
                 BufferedInputStream(
-                    javaClass.getResourceAsStream(filePath)
+                    javaClass.getResourceAsStream("/$fileName")
                 )
             )
 
-        return Trie(input.readAllBytes())
+        return Trie.load(input.readAllBytes())
+    }
+
+    /**
+     * Uses the place table of the passed region to resolve place ids if it exists in the TRIE_DIRECTORY, so routes can be
+     * built without querying the database. If the phonetic index of the region exists as well, phonetic matches are
+     * looked up in it instead of the database.
+     */
+    private fun loadPlaceRepository(region: Region, databaseRepository: PlaceRepository): PlaceRepository {
+        val placeTablePath = findInTrieDirectory("${region.name}.places") ?: return databaseRepository
+        val placeTable = PlaceTable.map(placeTablePath)
+        val mappedRepository = MappedPlaceRepository(placeTable, databaseRepository)
+        val phoneticIndexPath = findInTrieDirectory("${region.name}.phonetic") ?: return mappedRepository
+        return PhoneticIndexPlaceRepository(PhoneticIndex.map(phoneticIndexPath), placeTable, mappedRepository)
+    }
+
+    private fun findInTrieDirectory(fileName: String): Path? {
+        val trieDirectory = System.getenv("TRIE_DIRECTORY") ?: return null
+        val path = Paths.get(trieDirectory, fileName)
+        return if (Files.isReadable(path)) path else null
     }
 }
\ No newline at end of file
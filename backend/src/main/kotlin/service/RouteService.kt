@@ -3,9 +3,11 @@ package service
 import exception.BadRequestException
 import exception.HttpException
 import exception.NotFoundException
-import model.Place
+import exception.SearchBudgetExceededException
+import model.Route
 import util.MatcherType
 import util.Region
+import util.SearchBudget
 
 class RouteService {
 
@@ -15,26 +17,39 @@ class RouteService {
      * Maps the passed phrase to a route (a list of places) that sounds similar.
      *
      * @param phrase the phrase to map to a route.
-     * @return a list of places representing the mapped route.
+     * @param budget the time and search steps all matchers may use together.
+     * @return the mapped route, which is partial if the budget was exhausted before the search finished.
      */
     @Throws(HttpException::class)
-    fun mapPhraseToRoute(phrase: String?, phoneticFirst: Boolean, region: Region): List<Place> {
+    fun mapPhraseToRoute(
+        phrase: String?,
+        phoneticFirst: Boolean,
+        region: Region,
+        budget: SearchBudget = SearchBudget()
+    ): Route {
         if (phrase == null || phrase.isBlank()) {
             throw BadRequestException("Phrase must not be empty")
         }
 
+        // the levenshtein matcher finds typos the fuzzy groups of the trie matcher miss
         val matcherTypes = if (phoneticFirst) {
-            Pair(MatcherType.PHONETIC, MatcherType.TRIE)
+            listOf(MatcherType.PHONETIC, MatcherType.TRIE, MatcherType.LEVENSHTEIN)
         } else {
-            Pair(MatcherType.TRIE, MatcherType.PHONETIC)
+            listOf(MatcherType.TRIE, MatcherType.LEVENSHTEIN, MatcherType.PHONETIC)
         }
 
-        var route = phraseSearchService.mapPhraseToRoute(phrase, region, matcherTypes.first)
-        if (route == null || route.isEmpty()) {
-            route = phraseSearchService.mapPhraseToRoute(phrase, region, matcherTypes.second)
+        var route: Route? = null
+        for (matcherType in matcherTypes) {
+            route = phraseSearchService.mapPhraseToRoute(phrase, region, matcherType, budget)
+            if (route != null && route.places.isNotEmpty()) {
+                break
+            }
         }
 
-        if (route == null || route.isEmpty()) {
+        if (route == null || route.places.isEmpty()) {
+            if (budget.hasStoppedSearch) {
+                throw SearchBudgetExceededException("Couldn't find a route for the given phrase in time.")
+            }
             throw NotFoundException("Couldn't find a route for the given phrase.")
         }
 
@@ -0,0 +1,123 @@
+package util
+
+/**
+ * Open addressing hash map from non-negative long keys to int values without boxing. It is meant to be cleared and
+ * reused, clearing keeps the capacity. The slots can be iterated with getCapacity, isUsed, getKey and
+ * getValue without allocating.
+ */
+class LongIntHashMap(expectedSize: Int = 16) {
+
+    companion object {
+        private val EMPTY = -1L
+        private val MAX_LOAD_FACTOR = 0.5
+    }
+
+    private var keys = LongArray(capacityFor(expectedSize)) { EMPTY }
+    private var values = IntArray(keys.size)
+    var size = 0
+        private set
+
+    private fun capacityFor(expectedSize: Int): Int {
+        var capacity = 16
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity *= 2
+        }
+        return capacity
+    }
+
+    private fun slot(key: Long): Int {
+        val mask = keys.size - 1
+        // spreads the bits of the key, as keys often only differ in their upper or lower half
+        var hash = key * -0x61c8864680b583ebL
+        hash = hash xor hash.ushr(32)
+        var slot = hash.toInt() and mask
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) and mask
+        }
+        return slot
+    }
+
+    fun containsKey(key: Long): Boolean {
+        return keys[slot(key)] == key
+    }
+
+    /**
+     * returns the value of the key or defaultValue if the map doesn't contain it
+     */
+    fun get(key: Long, defaultValue: Int): Int {
+        val slot = slot(key)
+        return if (keys[slot] == key) values[slot] else defaultValue
+    }
+
+    fun put(key: Long, value: Int) {
+        val slot = slot(key)
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key
+            size++
+            values[slot] = value
+            growIfNecessary()
+        } else {
+            values[slot] = value
+        }
+    }
+
+    /**
+     * puts the value if the map doesn't contain the key yet or its value is bigger, returns true if the value was put
+     */
+    fun putIfSmaller(key: Long, value: Int): Boolean {
+        val slot = slot(key)
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key
+            size++
+            values[slot] = value
+            growIfNecessary()
+            return true
+        }
+        if (value < values[slot]) {
+            values[slot] = value
+            return true
+        }
+        return false
+    }
+
+    private fun growIfNecessary() {
+        if (size <= keys.size * MAX_LOAD_FACTOR) {
+            return
+        }
+        val oldKeys = keys
+        val oldValues = values
+        keys = LongArray(oldKeys.size * 2) { EMPTY }
+        values = IntArray(keys.size)
+        for (i in oldKeys.indices) {
+            if (oldKeys[i] != EMPTY) {
+                val slot = slot(oldKeys[i])
+                keys[slot] = oldKeys[i]
+                values[slot] = oldValues[i]
+            }
+        }
+    }
+
+    fun clear() {
+        if (size == 0) {
+            return
+        }
+        keys.fill(EMPTY)
+        size = 0
+    }
+
+    fun getCapacity(): Int {
+        return keys.size
+    }
+
+    fun isUsed(slot: Int): Boolean {
+        return keys[slot] != EMPTY
+    }
+
+    fun getKey(slot: Int): Long {
+        return keys[slot]
+    }
+
+    fun getValue(slot: Int): Int {
+        return values[slot]
+    }
+}
@@ -0,0 +1,74 @@
+package util
+
+/**
+ * Binary min-heap of longs without boxing. It is meant to be cleared and reused, clearing keeps the capacity.
+ */
+class LongMinHeap(initialCapacity: Int = 16) {
+
+    private var elements = LongArray(maxOf(initialCapacity, 1))
+    var size = 0
+        private set
+
+    fun isEmpty(): Boolean {
+        return size == 0
+    }
+
+    fun isNotEmpty(): Boolean {
+        return size != 0
+    }
+
+    fun add(element: Long) {
+        if (size == elements.size) {
+            elements = elements.copyOf(elements.size * 2)
+        }
+        var index = size++
+        while (index > 0) {
+            val parent = (index - 1) ushr 1
+            if (elements[parent] <= element) {
+                break
+            }
+            elements[index] = elements[parent]
+            index = parent
+        }
+        elements[index] = element
+    }
+
+    /**
+     * returns the smallest element without removing it
+     */
+    fun peek(): Long {
+        if (size == 0) {
+            throw NoSuchElementException("Heap is empty")
+        }
+        return elements[0]
+    }
+
+    /**
+     * removes and returns the smallest element
+     */
+    fun poll(): Long {
+        val smallest = peek()
+        val last = elements[--size]
+        var index = 0
+        while (true) {
+            var child = index * 2 + 1
+            if (child >= size) {
+                break
+            }
+            if (child + 1 < size && elements[child + 1] < elements[child]) {
+                child++
+            }
+            if (last <= elements[child]) {
+                break
+            }
+            elements[index] = elements[child]
+            index = child
+        }
+        elements[index] = last
+        return smallest
+    }
+
+    fun clear() {
+        size = 0
+    }
+}
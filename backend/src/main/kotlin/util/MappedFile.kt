@@ -0,0 +1,16 @@
+package util
+
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * maps a file read-only into memory. the file is not copied onto the heap, its pages are served (and shared between
+ * processes) by the OS page cache
+ */
+fun mapReadOnly(path: Path): MappedByteBuffer {
+    FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    }
+}
@@ -0,0 +1,16 @@
+package util
+
+data class Match(
+    /**
+     * The id of the word that was matched
+     */
+    val wordId: Int,
+    /**
+     * Where this match ends
+     */
+    val endDepth: Int,
+    /**
+     * score of match (lower = better)
+     */
+    val score: Int
+)
\ No newline at end of file
@@ -9,4 +9,18 @@ package util
  */
 interface Matcher {
     fun match(depth: Int): Pair<Boolean, Set<Match>>
+
+    /**
+     * like match, but matches with a higher score than maxScore may be left out, as they can't be part of the best route
+     */
+    fun match(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
+        return match(depth)
+    }
+
+    /**
+     * true if the depth is known to be the end of the search-string without matching it, false if it is unknown
+     */
+    fun isEnd(depth: Int): Boolean {
+        return false
+    }
 }
\ No newline at end of file
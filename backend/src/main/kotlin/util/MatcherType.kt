@@ -1,5 +1,5 @@
 package util
 
 enum class MatcherType {
-    TRIE, PHONETIC
+    TRIE, LEVENSHTEIN, PHONETIC
 }
\ No newline at end of file
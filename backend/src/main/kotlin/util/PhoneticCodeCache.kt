@@ -0,0 +1,107 @@
+package util
+
+import org.apache.commons.codec.language.Nysiis
+import org.apache.commons.codec.language.Soundex
+import org.apache.commons.codec.language.bm.BeiderMorseEncoder
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * the codes of a word, soundex is null if Soundex can't map the word
+ */
+data class PhoneticCodes(
+    val nysiis: String,
+    val beiderMorse: List<String>,
+    val soundex: String?
+)
+
+/**
+ * Process wide cache of the phonetic codes of words, as Beider-Morse in particular is expensive and common words are
+ * encoded again and again. The least recently used words are evicted as soon as it holds more than maxSize words.
+ * The words are encoded outside of the lock, so concurrent misses of the same word may encode it twice. The encoders
+ * ignore the case, so the words are cached in lower case and "The" hits the preloaded "the".
+ */
+class PhoneticCodeCache(
+    private val maxSize: Int,
+    private val encoder: (String) -> PhoneticCodes = { encode(it) }
+) {
+
+    companion object {
+        private val beiderMorseEncoder = BeiderMorseEncoder()
+        private val nysiisEncoder = Nysiis()
+        private val soundexEncoder = Soundex()
+
+        /**
+         * the number of words the shared cache holds
+         */
+        private val SIZE = System.getenv("PHONETIC_CODE_CACHE_SIZE")?.toInt() ?: 50_000
+
+        /**
+         * the cache of all phonetic matchers, it is preloaded with the common words of the phrases
+         */
+        val SHARED: PhoneticCodeCache by lazy {
+            PhoneticCodeCache(SIZE).apply {
+                PhoneticCodeCache::class.java.getResourceAsStream("/common-words.txt")?.bufferedReader()?.useLines {
+                    preload(it)
+                }
+            }
+        }
+
+        fun encode(word: String): PhoneticCodes {
+            val soundex = try {
+                soundexEncoder.encode(word)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+            return PhoneticCodes(nysiisEncoder.encode(word), beiderMorseEncoder.encode(word).split("|"), soundex)
+        }
+    }
+
+    private val codes = object : LinkedHashMap<String, PhoneticCodes>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, PhoneticCodes>?): Boolean {
+            return size > maxSize
+        }
+    }
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+
+    val hits: Long
+        get() = hitCount.get()
+
+    val misses: Long
+        get() = missCount.get()
+
+    val size: Int
+        get() = synchronized(codes) { codes.size }
+
+    fun get(word: String): PhoneticCodes {
+        val key = word.toLowerCase(Locale.ROOT)
+        synchronized(codes) {
+            val cached = codes[key]
+            if (cached != null) {
+                hitCount.incrementAndGet()
+                return cached
+            }
+        }
+        missCount.incrementAndGet()
+        val encoded = encoder(key)
+        synchronized(codes) {
+            codes[key] = encoded
+        }
+        return encoded
+    }
+
+    /**
+     * encodes the words without counting them as misses, empty lines and lines starting with # are skipped
+     */
+    fun preload(words: Sequence<String>) {
+        words.map { it.trim().toLowerCase(Locale.ROOT) }
+            .filter { it.isNotEmpty() && !it.startsWith("#") }
+            .forEach {
+                val encoded = encoder(it)
+                synchronized(codes) {
+                    codes[it] = encoded
+                }
+            }
+    }
+}
@@ -1,81 +1,186 @@
 package util
 
-import model.Place
-import org.apache.commons.codec.language.Nysiis
-import org.apache.commons.codec.language.Soundex
-import org.apache.commons.codec.language.bm.BeiderMorseEncoder
+import model.PlaceName
 import org.apache.commons.text.similarity.LevenshteinDistance
 import persistence.PlaceRepository
 
 /**
  * Matcher which uses a PlaceRepository to find phonetic matches. it uses a combination of BeiderMorse, Nyiis und Soundex to find it's matches.
+ * all word combinations of the phrase it may match are looked up upfront with one query per algorithm, see findPhoneticMatches, so
+ * the matches are served from memory.
  */
 class PhoneticMatcher(
-    search: String,
-    private val placeRepository: PlaceRepository
+    private val words: List<String>,
+    private val phoneticMatches: Map<String, List<PlaceName>>,
+    private val budget: SearchBudget = SearchBudget()
 ) : Matcher {
 
+    constructor(search: String, placeRepository: PlaceRepository, budget: SearchBudget = SearchBudget()) : this(
+        splitWords(search),
+        findPhoneticMatches(splitWords(search), placeRepository),
+        budget
+    )
+
     companion object {
         private val LEVENSHTEIN_DISTANCE = LevenshteinDistance()
-        private val beiderMorseEncoder = BeiderMorseEncoder()
-        private val nysiisEncoder = Nysiis()
-        private val soundexEnocder = Soundex()
-    }
 
-    private val words = search.split("\\s+".toRegex()).filter { it.isNotEmpty() }
+        fun splitWords(search: String): List<String> {
+            return search.split("\\s+".toRegex()).filter { it.isNotEmpty() }
+        }
+
+        /**
+         * the combinations of words starting at depth which are matched, the combination at index i ends at depth + i + 1
+         */
+        private fun wordCombinations(words: List<String>, depth: Int): List<String> {
+            val combinations = mutableListOf<String>()
+            var word = words[depth]
+            var wordCount = 1
+            while (true) {
+                combinations.add(word)
+                if (depth + wordCount >= words.size || (wordCount >= 2 && word.length >= 20)) {
+                    return combinations
+                }
+                word += " " + words[depth + wordCount]
+                wordCount++
+            }
+        }
+
+        /**
+         * Retrieves the places that sound similar to every word combination of the phrase. All combinations are encoded
+         * first, then the Beider-Morse and the Nysiis codes of all of them are resolved with a single query each. Only
+         * the combinations none of them delivers a result for are resolved with Soundex in a third query. The queries only
+         * deliver the ids and names of the places, their coordinates are loaded for the final route only.
+         *
+         * @param words the words of the phrase.
+         * @param codeCache the cache the codes of the word combinations are taken from.
+         * @return the matched places of every word combination.
+         */
+        fun findPhoneticMatches(
+            words: List<String>,
+            placeRepository: PlaceRepository,
+            codeCache: PhoneticCodeCache = PhoneticCodeCache.SHARED
+        ): Map<String, List<PlaceName>> {
+            val combinations = words.indices.flatMap { wordCombinations(words, it) }.distinct()
+            val codes = combinations.associateWith { codeCache.get(it) }
+
+            val nysiisPlaces = placeRepository.findAllWhereNysiisCodesMatch(codes.values.map { it.nysiis }.toSet())
+            val beiderMorsePlaces = placeRepository.findAllWhereBeiderMorseCodesMatch(
+                codes.values.flatMap { it.beiderMorse }.toSet()
+            )
+
+            val phoneticMatches = mutableMapOf<String, List<PlaceName>>()
+            val soundexCodes = mutableMapOf<String, String>()
+            for (combination in combinations) {
+                val combinationCodes = codes.getValue(combination)
+                val nysiisMatches = nysiisPlaces[combinationCodes.nysiis].orEmpty().sortedBy { it.id }
+                val beiderMorseMatches = sortedDistinctById(
+                    combinationCodes.beiderMorse.flatMap { beiderMorsePlaces[it].orEmpty() }
+                )
+
+                // Soundex as fallback if both result sets are empty (should barely never happen but to make sure...)
+                if (beiderMorseMatches.isEmpty() && nysiisMatches.isEmpty()) {
+                    combinationCodes.soundex?.let { soundexCodes[combination] = it }
+                    continue
+                }
+
+                val matchedPlaces = intersectSortedById(nysiisMatches, beiderMorseMatches)
+                phoneticMatches[combination] = if (matchedPlaces.isNotEmpty()) {
+                    matchedPlaces
+                } else {
+                    unionSortedById(nysiisMatches, beiderMorseMatches)
+                }
+            }
+
+            if (soundexCodes.isNotEmpty()) {
+                val soundexPlaces = placeRepository.findAllWhereSoundexCodesMatch(soundexCodes.values.toSet())
+                soundexCodes.forEach { (combination, code) -> phoneticMatches[combination] = soundexPlaces[code].orEmpty() }
+            }
+            return phoneticMatches
+        }
+
+        private fun sortedDistinctById(places: List<PlaceName>): List<PlaceName> {
+            val sorted = places.sortedBy { it.id }
+            val distinct = ArrayList<PlaceName>(sorted.size)
+            for (place in sorted) {
+                if (distinct.isEmpty() || distinct[distinct.size - 1].id != place.id) {
+                    distinct.add(place)
+                }
+            }
+            return distinct
+        }
+
+        /**
+         * the places contained in both lists, which have to be ordered by id without duplicates
+         */
+        internal fun intersectSortedById(first: List<PlaceName>, second: List<PlaceName>): List<PlaceName> {
+            val intersection = ArrayList<PlaceName>(minOf(first.size, second.size))
+            var i = 0
+            var j = 0
+            while (i < first.size && j < second.size) {
+                val comparison = first[i].id.compareTo(second[j].id)
+                when {
+                    comparison < 0 -> i++
+                    comparison > 0 -> j++
+                    else -> {
+                        intersection.add(first[i])
+                        i++
+                        j++
+                    }
+                }
+            }
+            return intersection
+        }
+
+        /**
+         * the places contained in any of the lists, which have to be ordered by id without duplicates
+         */
+        internal fun unionSortedById(first: List<PlaceName>, second: List<PlaceName>): List<PlaceName> {
+            val union = ArrayList<PlaceName>(first.size + second.size)
+            var i = 0
+            var j = 0
+            while (i < first.size || j < second.size) {
+                val comparison = when {
+                    i == first.size -> 1
+                    j == second.size -> -1
+                    else -> first[i].id.compareTo(second[j].id)
+                }
+                when {
+                    comparison < 0 -> union.add(first[i++])
+                    comparison > 0 -> union.add(second[j++])
+                    else -> {
+                        union.add(first[i++])
+                        j++
+                    }
+                }
+            }
+            return union
+        }
+    }
 
     override fun match(depth: Int): Pair<Boolean, Set<Match>> {
         if (depth == words.size) {
             return Pair(true, emptySet())
         }
-        var wordCount = 1
         val results = mutableSetOf<Match>()
-        do {
-            var word = words[depth]
-            for (i in 1 until wordCount) {
-                word += " " + words[depth + i]
+        wordCombinations(words, depth).forEachIndexed { i, word ->
+            if (!budget.expand()) {
+                return Pair(false, results)
             }
-            results.addAll(getPhoneticMatchesForWord(placeRepository, word)
+            results.addAll(phoneticMatches[word].orEmpty()
                 //TODO do we really want to do that?
                 .distinctBy { it.name }
                 .map {
                     Match(
                         it.id.toInt(),
-                        depth + wordCount,
+                        depth + i + 1,
                         LEVENSHTEIN_DISTANCE.apply(word, it.name)
                     )
                 })
-            wordCount++
-        } while (depth + wordCount - 1 < words.size && (wordCount <= 2 || word.length < 20))
+        }
         return Pair(false, results)
     }
 
-    /**
-     * Retrieves all places from the database that sound similar to the passed word. To calculate these matches it uses
-     * the Beider-Morse and Nysiis as primary Phonetic Matchin Algorithms. If none of them delivers a result, Soundex
-     * is used as fallback.
-     *
-     * @param word the word to find similar sounding places for.
-     * @return a list of places that match to the passed word.
-     */
-    fun getPhoneticMatchesForWord(placeRepository: PlaceRepository, word: String): List<Place> {
-        // Nysiis
-        val nysiisMatches = placeRepository.findAllWhereNysiisCodeMatches(nysiisEncoder.encode(word))
-
-        // Beider Morse
-        val beiderMorseCodes = beiderMorseEncoder.encode(word).split("|")
-        val beiderMorseMatches = placeRepository.findAllWhereBeiderMorseCodeMatches(beiderMorseCodes)
-
-        // Soundex as fallback if both result sets are empty (should barely never happen but to make sure...)
-        if (beiderMorseMatches.isEmpty() && nysiisMatches.isEmpty()) {
-            return placeRepository.findAllWhereSoundexCodeMatches(soundexEnocder.encode(word))
-        }
-
-        val matchedPlaces = nysiisMatches.intersect(beiderMorseMatches).toList()
-        return if (matchedPlaces.isNotEmpty()) {
-            matchedPlaces
-        } else {
-            nysiisMatches.union(beiderMorseMatches).toList()
-        }
+    override fun isEnd(depth: Int): Boolean {
+        return depth == words.size
     }
-}
\ No newline at end of file
+}
@@ -1,135 +1,425 @@
 package util
 
+import java.util.BitSet
+
 /**
  * Class which uses a Matcher to perform a search. It basically is a dynamic programming algorithm.
  * It works based on the premise that no matter how you end up at a given point in the search-string, from here on out all the possible results are the same
- * This allows us to split the search into small chunks (saved in the cache) where we start from the beginning (depth=0) and work our way up to all possible other depths we reach with our Matcher.
- * As soon as the Matcher indicates we have a valid end this search returns the best n=maxResultSize solutions from this depth/cache
+ * This allows us to split the search into small chunks where we start from the beginning (depth=0) and work our way up to all possible other depths we reach with our Matcher.
+ * As soon as the Matcher indicates we have a valid end this search returns the best n=maxResultSize solutions from this depth
+ * The budget has to be the one the Matcher uses. Once it is exhausted the Matcher doesn't find new matches anymore, so the search
+ * only finishes the depths it already reached and returns the best solutions found so far, if the end was reached at all.
+ *
+ * The results are enumerated lazily like in the recursive enumeration algorithm of Jiménez and Marzal: while searching
+ * only the best result of every depth is calculated. The next result of a depth is only calculated once it is requested,
+ * which in turn requests the next result of the prefix of its last result. So the best route costs a single shortest
+ * path search and further routes are calculated when findRoutes' iterator is advanced.
+ *
+ * With bestFirst the depths are not matched in ascending order, but ordered by the score of their best result like in
+ * Dijkstra's algorithm, which requires scores that are not negative. The end is matched before every depth with a worse
+ * score, so its first route is the best one and these depths are not matched for it. Once a match reaches the end, its
+ * score bounds the scores of the matches the Matcher still has to find. Only when a further route is requested, the
+ * search is completed: the depths matched with a bound are matched again without it and the remaining depths are
+ * matched, so the further routes are the same as without bestFirst.
+ *
+ * With a beamWidth only the beamWidth best candidates of every depth are kept, which bounds the memory and the work
+ * per depth independent of the length of the phrase. The candidates of a depth are pruned to the beamWidth best ones
+ * whenever twice as many were added, matches worse than the worst kept candidate are not stored at all. Every one of
+ * the beamWidth best routes of a depth ends with a match whose candidate is among the beamWidth best ones, so these
+ * routes are still found, only further routes may be missed.
+ *
+ * The state is kept in primitive arrays indexed by depth, the results and matches of all depths are stored as struct of
+ * arrays. A result points to the result of its prefix, so a route is read backwards from its last result.
  */
 class PhraseSearch(
     private val matcher: Matcher,
-    private val maxResultSize: Int = 100
+    private val maxResultSize: Int = 100,
+    private val budget: SearchBudget = SearchBudget(),
+    private val bestFirst: Boolean = false,
+    private val beamWidth: Int = Int.MAX_VALUE
 ) {
 
-    private val cache = mutableMapOf<Int, CacheEntry>()
-    private val depthsToCompute = mutableSetOf<Int>()
+    companion object {
+        /**
+         * the beam width which still finds the routes search() returns with the default maxResultSize
+         */
+        val DEFAULT_BEAM_WIDTH = 100
+
+        private val INITIAL_DEPTHS = 64
+        private val INITIAL_ENTRIES = 1024
+        private val NONE = -1
+    }
+
+    // results of all depths, a result points to the result of its prefix
+    private var resultScores = IntArray(INITIAL_ENTRIES)
+    private var resultWordIds = IntArray(INITIAL_ENTRIES)
+    private var resultPrefixes = IntArray(INITIAL_ENTRIES)
+    private var resultCount = 0
+
+    // matches of all depths, prefixIndexes is which result of the start depth the match uses next
+    private var matchWordIds = IntArray(INITIAL_ENTRIES)
+    private var matchStartDepths = IntArray(INITIAL_ENTRIES)
+    private var matchScores = IntArray(INITIAL_ENTRIES)
+    private var prefixIndexes = IntArray(INITIAL_ENTRIES)
+    private var matchCount = 0
+
+    // per depth: its results ordered by score, the candidates for its next result and the match of its last result,
+    // whose next candidate is only added once the next result is requested
+    private var depthResults = arrayOfNulls<IntArray>(INITIAL_DEPTHS)
+    private var depthResultCounts = IntArray(INITIAL_DEPTHS)
+    private var candidates = arrayOfNulls<LongMinHeap>(INITIAL_DEPTHS)
+    private var pendingMatches = IntArray(INITIAL_DEPTHS) { NONE }
+
+    private val depthsToCompute = BitSet()
+
+    // beam: candidates of a depth with a distance of at least its threshold are not among the beamWidth best ones
+    private var beamThresholds = IntArray(INITIAL_DEPTHS) { Int.MAX_VALUE }
+    private var beamCandidates = LongArray(0)
+
+    // best first: the reached depths keyed by the score of their best result in the upper and the depth in the lower
+    // half, a depth is added again whenever it is reached, the matched depths are skipped
+    private val frontier = LongMinHeap()
+    private val matchedDepths = BitSet()
+    private var bestEndScore = Int.MAX_VALUE
+    private var matchBounds = IntArray(INITIAL_DEPTHS)
+    private var isComplete = false
+
+    init {
+        if (beamWidth < 1) {
+            throw IllegalArgumentException("The beam width has to be positive")
+        }
+    }
+
+    /**
+     * the number of matches kept by the last search
+     */
+    internal val storedMatchCount: Int
+        get() = matchCount
+
+    /**
+     * true if the budget stopped the matcher during the last search, so its results may not be the best ones
+     */
+    var isPartial = false
+        private set
+
+    /**
+     * the score of the best route of the last search, null if no route was found
+     */
+    var bestScore: Int? = null
+        private set
 
+    /**
+     * returns the best n=maxResultSize routes
+     */
     fun search(): List<List<Int>> {
-        cache[0] = CacheEntry(
-            mutableListOf(
-                Pair(
-                    0,
-                    ResultNode(-1, null)
-                )
-            )
-        )
-        searchDepth(0)
-        while (depthsToCompute.isNotEmpty()) {
-            val depth = depthsToCompute.min()!!
-            depthsToCompute.remove(depth)
+        return findRoutes().asSequence().take(maxResultSize).toList()
+    }
 
-            calculateResultsForDepth(depth)
+    /**
+     * searches the best route and returns an iterator over all routes ordered by score, which calculates each route
+     * after the best one when it is requested. The iterator must not be used after the next search was started.
+     */
+    fun findRoutes(): Iterator<List<Int>> {
+        val endDepth = searchEndDepth()
+        isPartial = budget.hasStoppedSearch
+        if (endDepth == NONE) {
+            bestScore = null
+            return emptyList<List<Int>>().iterator()
+        }
+        val bestResult = resultAt(endDepth, 0)
+        bestScore = if (bestResult == NONE) null else resultScores[bestResult]
+        return object : Iterator<List<Int>> {
+            private var index = 0
 
-            if (searchDepth(depth)) {
-                return makeToResultList(cache[depth]!!.results)
+            override fun hasNext(): Boolean {
+                if (index > 0) {
+                    completeBestFirstSearch()
+                }
+                return resultAt(endDepth, index) != NONE
+            }
+
+            override fun next(): List<Int> {
+                if (index > 0) {
+                    completeBestFirstSearch()
+                }
+                val result = resultAt(endDepth, index)
+                if (result == NONE) {
+                    throw NoSuchElementException()
+                }
+                index++
+                return toRoute(result)
             }
         }
-        return emptyList()
     }
 
-    private fun makeToResultList(resultChains: MutableList<Pair<Int, ResultNode>>): List<List<Int>> {
-        return resultChains.map {
-            val result = mutableListOf<Int>()
-            var currentNode: ResultNode? = it.second
-            while (currentNode != null && currentNode.wordId != -1) {
-                result.add(currentNode.wordId)
-                currentNode = currentNode.prefix
+    /**
+     * calculates the best result of every depth reached until the matcher signals the end, which is returned
+     */
+    private fun searchEndDepth(): Int {
+        reset()
+        ensureDepthCapacity(0)
+        addResult(0, 0, NONE, NONE)
+
+        searchDepth(0)
+        if (bestFirst) {
+            return searchEndDepthBestFirst()
+        }
+        while (!depthsToCompute.isEmpty) {
+            val depth = depthsToCompute.nextSetBit(0)
+            depthsToCompute.clear(depth)
+
+            calculateNextResult(depth)
+
+            if (searchDepth(depth)) {
+                return depth
             }
-            result.reversed()
         }
+        return NONE
     }
 
-    private fun calculateResultsForDepth(depth: Int) {
-        // all our matches. toList() is important since the index of a match is the same for #matches, #matchPrefixIndexes and #prefixes
-        val matches = cache[depth]!!.cacheMatches.toList()
-        // matchPrefixIndexes is which match of the prefix should be used next (this relies on the matches of the prefix being sorted)
-        val matchPrefixIndexes = Array(matches.size) { 0 }
-        val prefixes =
-            Array(matches.size) { i -> cache[matches[i].startDepth]!!.results }
+    private fun searchEndDepthBestFirst(): Int {
+        matchedDepths.set(0)
+        while (frontier.isNotEmpty()) {
+            val depth = frontier.poll().toInt()
+            if (matchedDepths.get(depth)) {
+                continue
+            }
+            matchedDepths.set(depth)
+
+            calculateNextResult(depth)
 
-        val matchDistances =
-            Array(matches.size) { i ->
-                matches[i].score
+            if (searchDepth(depth)) {
+                return depth
             }
+        }
+        return NONE
+    }
 
-        val results = cache[depth]!!.results
-        while (results.size < maxResultSize) {
-            var minI = -1
-            var min: Int? = null
-            for (i in matches.indices) {
-                if (matchPrefixIndexes[i] >= prefixes[i].size) {
-                    continue
-                } else {
-                    val distance = matchDistances[i] + prefixes[i][matchPrefixIndexes[i]].first
-                    if (min == null || distance < min) {
-                        min = distance
-                        minI = i
-                    }
+    /**
+     * matches the depths the best first search matched with a bound again without it, only the matches with a score
+     * above the bound are new. then the remaining depths are matched in the order of their best result. the best
+     * result of every depth matched before stays the best one, as the missing matches are worse than the first route.
+     */
+    private fun completeBestFirstSearch() {
+        if (!bestFirst || isComplete) {
+            return
+        }
+        isComplete = true
+        bestEndScore = Int.MAX_VALUE
+        var depth = matchedDepths.nextSetBit(0)
+        while (depth >= 0) {
+            val bound = matchBounds[depth]
+            if (bound != Int.MAX_VALUE) {
+                matchBounds[depth] = Int.MAX_VALUE
+                val (done, results) = matcher.match(depth)
+                if (!done) {
+                    addMatches(depth, results, bound)
                 }
             }
-            if (min == null) {
-                break
-            } else {
-                val minMatch = matches[minI]
-                results.add(
-                    Pair(
-                        min,
-                        ResultNode(
-                            minMatch.wordId,
-                            prefixes[minI][matchPrefixIndexes[minI]].second
-                        )
-                    )
-                )
-                matchPrefixIndexes[minI] = matchPrefixIndexes[minI] + 1
+            depth = matchedDepths.nextSetBit(depth + 1)
+        }
+        while (frontier.isNotEmpty()) {
+            val nextDepth = frontier.poll().toInt()
+            if (matchedDepths.get(nextDepth)) {
+                continue
             }
+            matchedDepths.set(nextDepth)
+            calculateNextResult(nextDepth)
+            searchDepth(nextDepth)
         }
+    }
 
-        matches.map { it.startDepth }.toSet()
-            .forEach {
-                val cacheEntry = cache[it]!!
-                cacheEntry.isNeededFrom.remove(depth)
-                if (cacheEntry.isNeededFrom.isEmpty()) {
-                    cache.remove(it)
-                }
+    private fun reset() {
+        resultCount = 0
+        matchCount = 0
+        depthResultCounts.fill(0)
+        candidates.fill(null)
+        pendingMatches.fill(NONE)
+        depthsToCompute.clear()
+        beamThresholds.fill(Int.MAX_VALUE)
+        frontier.clear()
+        matchedDepths.clear()
+        bestEndScore = Int.MAX_VALUE
+        isComplete = false
+    }
+
+    private fun toRoute(lastResult: Int): List<Int> {
+        val route = mutableListOf<Int>()
+        var currentResult = lastResult
+        while (currentResult != NONE && resultWordIds[currentResult] != NONE) {
+            route.add(resultWordIds[currentResult])
+            currentResult = resultPrefixes[currentResult]
+        }
+        return route.reversed()
+    }
+
+    /**
+     * returns the result of the depth with the passed rank, it is calculated if necessary. NONE if there are less results.
+     */
+    private fun resultAt(depth: Int, rank: Int): Int {
+        while (depthResultCounts[depth] <= rank) {
+            if (!calculateNextResult(depth)) {
+                return NONE
+            }
+        }
+        return depthResults[depth]!![rank]
+    }
+
+    /**
+     * k-way merge of the sorted results of the start depths of all matches ending at this depth: the candidates hold
+     * every match which has results of its start depth left, keyed by the distance of its next result in the upper and
+     * the index of the match in the lower half, so ties are broken by the order the matches were found in
+     */
+    private fun calculateNextResult(depth: Int): Boolean {
+        val depthCandidates = candidates[depth] ?: return false
+        val pendingMatch = pendingMatches[depth]
+        if (pendingMatch != NONE) {
+            pendingMatches[depth] = NONE
+            prefixIndexes[pendingMatch]++
+            val prefix = resultAt(matchStartDepths[pendingMatch], prefixIndexes[pendingMatch])
+            if (prefix != NONE) {
+                depthCandidates.add(candidateKey(matchScores[pendingMatch] + resultScores[prefix], pendingMatch))
             }
+        }
+        if (depthCandidates.isEmpty()) {
+            return false
+        }
+
+        val key = depthCandidates.poll()
+        val minMatch = key.toInt()
+        val prefix = depthResults[matchStartDepths[minMatch]]!![prefixIndexes[minMatch]]
+        addResult(depth, (key shr 32).toInt(), matchWordIds[minMatch], prefix)
+        pendingMatches[depth] = minMatch
+        return true
+    }
+
+    private fun candidateKey(distance: Int, match: Int): Long {
+        return (distance.toLong() shl 32) or match.toLong()
     }
 
     private fun searchDepth(depth: Int): Boolean {
-        val (done, results) = matcher.match(depth)
+        val (done, results) = if (bestFirst) {
+            val bound = if (bestEndScore == Int.MAX_VALUE) Int.MAX_VALUE else bestEndScore - bestScoreOf(depth)
+            matchBounds[depth] = bound
+            matcher.match(depth, bound)
+        } else {
+            matcher.match(depth)
+        }
         if (done) {
             return true
         }
+        addMatches(depth, results, Int.MIN_VALUE)
+        return false
+    }
 
-        val cacheGroups = results.groupBy { it.endDepth }
-        cacheGroups.forEach {
-            val suffix = it.key
+    private fun bestScoreOf(depth: Int): Int {
+        return if (depthResultCounts[depth] == 0) 0 else resultScores[depthResults[depth]!![0]]
+    }
 
-            if (!cache.containsKey(suffix)) {
-                depthsToCompute.add(suffix)
-                cache[suffix] = CacheEntry()
+    /**
+     * adds the matches starting at the depth as candidates of their end depths, except the ones with a score up to
+     * knownMaxScore, which were already added
+     */
+    private fun addMatches(depth: Int, results: Set<Match>, knownMaxScore: Int) {
+        if (depthResultCounts[depth] == 0) {
+            return
+        }
+        val bestScore = bestScoreOf(depth)
+        for (match in results) {
+            if (match.score <= knownMaxScore) {
+                continue
+            }
+            val suffix = match.endDepth
+            val score = match.score + bestScore
+            ensureDepthCapacity(suffix)
+            if (score >= beamThresholds[suffix]) {
+                continue
+            }
+            if (candidates[suffix] == null) {
+                candidates[suffix] = LongMinHeap()
+                depthsToCompute.set(suffix)
             }
+            val matchIndex = addMatch(match.wordId, depth, match.score)
+            candidates[suffix]!!.add(candidateKey(score, matchIndex))
+            if (beamWidth != Int.MAX_VALUE && candidates[suffix]!!.size >= beamWidth.toLong() * 2) {
+                pruneCandidates(suffix)
+            }
+            if (bestFirst) {
+                frontier.add((score.toLong() shl 32) or suffix.toLong())
+                if (!isComplete && score < bestEndScore && matcher.isEnd(suffix)) {
+                    bestEndScore = score
+                }
+            }
+        }
+    }
 
-            cache[suffix]!!.cacheMatches.addAll(it.value.map { match ->
-                CacheMatch(
-                    match.wordId,
-                    depth,
-                    match.endDepth,
-                    match.score
-                )
-            })
-            cache[depth]!!.isNeededFrom.add(suffix)
+    /**
+     * keeps the beamWidth best candidates of the depth, the distance of the worst of them becomes the threshold. later
+     * candidates with the same distance have a higher match index, so they are worse as well
+     */
+    private fun pruneCandidates(depth: Int) {
+        val depthCandidates = candidates[depth]!!
+        if (beamCandidates.size < beamWidth) {
+            beamCandidates = LongArray(beamWidth)
         }
-        return false
+        for (i in 0 until beamWidth) {
+            beamCandidates[i] = depthCandidates.poll()
+        }
+        depthCandidates.clear()
+        for (i in 0 until beamWidth) {
+            depthCandidates.add(beamCandidates[i])
+        }
+        beamThresholds[depth] = (beamCandidates[beamWidth - 1] shr 32).toInt()
+    }
+
+    private fun addResult(depth: Int, score: Int, wordId: Int, prefix: Int) {
+        if (resultCount == resultScores.size) {
+            resultScores = resultScores.copyOf(resultCount * 2)
+            resultWordIds = resultWordIds.copyOf(resultCount * 2)
+            resultPrefixes = resultPrefixes.copyOf(resultCount * 2)
+        }
+        resultScores[resultCount] = score
+        resultWordIds[resultCount] = wordId
+        resultPrefixes[resultCount] = prefix
+
+        var results = depthResults[depth]
+        val count = depthResultCounts[depth]
+        if (results == null || count == results.size) {
+            results = results?.copyOf(count * 2) ?: IntArray(4)
+            depthResults[depth] = results
+        }
+        results[count] = resultCount
+        depthResultCounts[depth] = count + 1
+        resultCount++
+    }
+
+    private fun addMatch(wordId: Int, startDepth: Int, score: Int): Int {
+        if (matchCount == matchWordIds.size) {
+            matchWordIds = matchWordIds.copyOf(matchCount * 2)
+            matchStartDepths = matchStartDepths.copyOf(matchCount * 2)
+            matchScores = matchScores.copyOf(matchCount * 2)
+            prefixIndexes = prefixIndexes.copyOf(matchCount * 2)
+        }
+        matchWordIds[matchCount] = wordId
+        matchStartDepths[matchCount] = startDepth
+        matchScores[matchCount] = score
+        prefixIndexes[matchCount] = 0
+        return matchCount++
     }
-}
 
+    private fun ensureDepthCapacity(depth: Int) {
+        if (depth < candidates.size) {
+            return
+        }
+        val oldSize = candidates.size
+        val newSize = maxOf(depth + 1, oldSize * 2)
+        depthResults = depthResults.copyOf(newSize)
+        depthResultCounts = depthResultCounts.copyOf(newSize)
+        candidates = candidates.copyOf(newSize)
+        matchBounds = matchBounds.copyOf(newSize)
+        beamThresholds = beamThresholds.copyOf(newSize)
+        beamThresholds.fill(Int.MAX_VALUE, oldSize, newSize)
+        pendingMatches = pendingMatches.copyOf(newSize)
+        pendingMatches.fill(NONE, oldSize, newSize)
+    }
+}
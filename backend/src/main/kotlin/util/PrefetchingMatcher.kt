@@ -0,0 +1,103 @@
+package util
+
+import java.io.Closeable
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+
+/**
+ * Matcher which speculatively matches the depths a match reaches on the executor, while the PhraseSearch still merges
+ * the results of the smaller depths. Matches from different start depths are independent, so the PhraseSearch only
+ * waits for the match of the depth it needs next, which usually is already done. The matchers reuse their state between
+ * matches, so every running match borrows its own matcher, which is created by the matcherFactory if none is free.
+ * The matcher itself is used by the thread of the PhraseSearch only. isEnd is answered by the first created matcher, so
+ * the matchers have to answer it without their match state. The prefetches still running once the search has found its
+ * route are cancelled by close.
+ * A prefetch is bounded by the maxScore of the match that reached its depth. A best first PhraseSearch matches the
+ * reached depths later with a score at least as high, so their bound is at most this one. If a depth is matched with a
+ * higher bound anyway, its prefetch is discarded and the depth is matched again.
+ */
+class PrefetchingMatcher(
+    private val executor: ExecutorService,
+    private val matcherFactory: () -> Matcher
+) : Matcher, Closeable {
+
+    private val matchers = ConcurrentLinkedQueue<Matcher>()
+    private val prefetches = mutableMapOf<Int, Prefetch>()
+    private val startedDepths = mutableSetOf<Int>()
+
+    @Volatile
+    private var firstMatcher: Matcher? = null
+
+    override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+        return match(depth, Int.MAX_VALUE)
+    }
+
+    /**
+     * the prefetches of the reached depths are started with maxScore as their bound
+     */
+    override fun match(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
+        startedDepths.add(depth)
+        val prefetch = prefetches.remove(depth)
+        val result = if (prefetch != null && prefetch.maxScore >= maxScore) {
+            await(prefetch.result)
+        } else {
+            prefetch?.result?.cancel(true)
+            matchWithFreeMatcher(depth, maxScore)
+        }
+        for (match in result.second) {
+            if (startedDepths.add(match.endDepth)) {
+                prefetches[match.endDepth] = Prefetch(
+                    maxScore,
+                    executor.submit(Callable { matchWithFreeMatcher(match.endDepth, maxScore) })
+                )
+            }
+        }
+        return result
+    }
+
+    override fun isEnd(depth: Int): Boolean {
+        return firstMatcher?.isEnd(depth) ?: false
+    }
+
+    /**
+     * cancels the prefetches which were not used, the ones not started yet are never matched
+     */
+    override fun close() {
+        prefetches.values.forEach { it.result.cancel(true) }
+        prefetches.clear()
+    }
+
+    private fun await(prefetch: Future<Pair<Boolean, Set<Match>>>): Pair<Boolean, Set<Match>> {
+        try {
+            return prefetch.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * the matchers reuse their result sets, so they are copied before the matcher is given back
+     */
+    private fun matchWithFreeMatcher(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
+        val matcher = matchers.poll() ?: createMatcher()
+        try {
+            val (done, results) = matcher.match(depth, maxScore)
+            return Pair(done, results.toSet())
+        } finally {
+            matchers.add(matcher)
+        }
+    }
+
+    private fun createMatcher(): Matcher {
+        val matcher = matcherFactory()
+        if (firstMatcher == null) {
+            firstMatcher = matcher
+        }
+        return matcher
+    }
+
+    private class Prefetch(val maxScore: Int, val result: Future<Pair<Boolean, Set<Match>>>)
+}
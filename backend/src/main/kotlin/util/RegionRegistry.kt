@@ -0,0 +1,64 @@
+package util
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Loads a value (e.g. the trie) of a region on its first use instead of loading all regions upfront. Concurrent first
+ * uses of a region wait for a single load. The registry tracks the size of every loaded value and evicts the least
+ * recently used regions as soon as their sum exceeds the memory budget, the region that was just used is always kept.
+ * Regions are identified by the key type R, which usually is Region.
+ */
+class RegionRegistry<R : Any, T : Any>(
+    private val memoryBudget: Long,
+    private val sizeOf: (T) -> Long,
+    private val loader: (R) -> T
+) {
+    private val loads = ConcurrentHashMap<R, Lazy<T>>()
+
+    /**
+     * the loaded regions in access order, the least recently used region comes first
+     */
+    private val loaded = LinkedHashMap<R, Long>(16, 0.75f, true)
+    private var residentSize = 0L
+
+    fun get(region: R): T {
+        val load = loads.computeIfAbsent(region) { lazy { loader(region) } }
+        val value = load.value
+        synchronized(loaded) {
+            if (loaded[region] == null && loads[region] === load) {
+                val size = sizeOf(value)
+                loaded[region] = size
+                residentSize += size
+                evict(region)
+            }
+        }
+        return value
+    }
+
+    private fun evict(usedRegion: R) {
+        val iterator = loaded.entries.iterator()
+        while (residentSize > memoryBudget && iterator.hasNext()) {
+            val (region, size) = iterator.next()
+            if (region != usedRegion) {
+                iterator.remove()
+                loads.remove(region)
+                residentSize -= size
+            }
+        }
+    }
+
+    /**
+     * the sum of the sizes of all loaded regions
+     */
+    fun getResidentSize(): Long {
+        synchronized(loaded) {
+            return residentSize
+        }
+    }
+
+    fun isLoaded(region: R): Boolean {
+        synchronized(loaded) {
+            return loaded.containsKey(region)
+        }
+    }
+}
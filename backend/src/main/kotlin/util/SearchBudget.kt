@@ -0,0 +1,80 @@
+package util
+
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.min
+
+/**
+ * Bounds the work of a search by a timeout and a maximum number of expanded search states. Matchers call expand() for
+ * every state they expand and stop expanding as soon as it returns false, the clock is only read every
+ * CLOCK_CHECK_INTERVAL expansions. Once exhausted, a budget stays exhausted. A budget may be shared by matchers running
+ * on different threads.
+ */
+class SearchBudget(
+    timeoutMillis: Long = Long.MAX_VALUE,
+    private val maxExpansions: Long = Long.MAX_VALUE
+) {
+
+    companion object {
+        private val CLOCK_CHECK_INTERVAL = 1024L
+    }
+
+    private val startNanos = System.nanoTime()
+    private val timeoutNanos = if (timeoutMillis >= Long.MAX_VALUE / 1_000_000) {
+        Long.MAX_VALUE
+    } else {
+        timeoutMillis * 1_000_000
+    }
+
+    private val expansionCount = AtomicLong()
+
+    @Volatile
+    private var exhausted = false
+
+    @Volatile
+    private var refused = false
+
+    /**
+     * the number of states that were allowed to be expanded
+     */
+    val expansions: Long
+        get() = min(expansionCount.get(), maxExpansions)
+
+    /**
+     * true if the timeout passed or the maximum number of expansions was reached
+     */
+    val isExhausted: Boolean
+        get() {
+            if (!exhausted && System.nanoTime() - startNanos >= timeoutNanos) {
+                exhausted = true
+            }
+            return exhausted
+        }
+
+    /**
+     * true if expand() refused a state, so a search actually stopped early. Unlike isExhausted it doesn't read the
+     * clock, a search that finished just before the timeout isn't reported as stopped.
+     */
+    val hasStoppedSearch: Boolean
+        get() = refused
+
+    /**
+     * counts an expanded search state, returns false if the state must not be expanded because the budget is exhausted
+     */
+    fun expand(): Boolean {
+        if (exhausted) {
+            refused = true
+            return false
+        }
+        val count = expansionCount.incrementAndGet()
+        if (count > maxExpansions) {
+            exhausted = true
+            refused = true
+            return false
+        }
+        if (count % CLOCK_CHECK_INTERVAL == 0L && isExhausted) {
+            refused = true
+            return false
+        }
+        return true
+    }
+}
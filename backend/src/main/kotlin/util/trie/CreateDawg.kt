@@ -0,0 +1,108 @@
+package util.trie
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.OutputStream
+
+/**
+ * converts an INDEXED trie into a DawgTrie. the nodes are minimized bottom up: a node is only written if no node with
+ * the same word flag, child chars and (already minimized) children was written before, otherwise the offset of that
+ * node is reused. the posting lists are collected in the order of the words, which is the rank used by DawgTrie.
+ */
+class CreateDawg(private val trie: IndexedTrie) {
+
+    private val nodesBytes = ByteArrayOutputStream()
+    private val nodesOut = DataOutputStream(nodesBytes)
+    private val postingsOut = ByteArrayOutputStream()
+    private val postingList = PostingList()
+    private val ids = mutableListOf<Int>()
+
+    /**
+     * the offsets of all written nodes
+     */
+    private val register = HashMap<NodeKey, Int>()
+
+    /**
+     * the number of words below every written node, including the node itself
+     */
+    private val wordCounts = HashMap<Int, Int>()
+
+    /**
+     * the offset of the posting list of every word by its rank
+     */
+    val postingOffsets = mutableListOf<Int>()
+
+    /**
+     * the number of nodes of the INDEXED trie
+     */
+    var trieNodeCount = 0
+        private set
+
+    val rootOffset = minimize(trie.rootNode)
+
+    val nodeCount: Int
+        get() = register.size
+
+    val nodes: ByteArray
+        get() = nodesBytes.toByteArray()
+
+    val postings: ByteArray
+        get() = postingsOut.toByteArray()
+
+    /**
+     * saves the postings of the node before its children to keep the order of the ranks and returns the offset of the
+     * minimized node
+     */
+    private fun minimize(node: Long): Int {
+        trieNodeCount++
+        val isWord = trie.isWord(node)
+        if (isWord) {
+            savePostings(node)
+        }
+        val childCount = trie.getChildCount(node)
+        val childChars = CharArray(childCount) { trie.getChildChar(node, it) }
+        val childOffsets = IntArray(childCount) { minimize(trie.getChildAt(node, it)) }
+
+        val key = NodeKey(isWord, String(childChars), childOffsets.toList())
+        val registered = register[key]
+        if (registered != null) {
+            return registered
+        }
+        val offset = TrieFormat.HEADER_SIZE + nodesOut.size()
+        nodesOut.writeByte(if (isWord) 1 else 0)
+        nodesOut.writeShort(childCount)
+        childChars.forEach { nodesOut.writeChar(it.toInt()) }
+        childOffsets.forEach { nodesOut.writeInt(it) }
+        var wordsBefore = 0
+        childOffsets.forEach {
+            nodesOut.writeInt(wordsBefore)
+            wordsBefore += wordCounts[it]!!
+        }
+        register[key] = offset
+        wordCounts[offset] = wordsBefore + if (isWord) 1 else 0
+        return offset
+    }
+
+    private fun savePostings(node: Long) {
+        postingOffsets.add(postingsOut.size())
+        ids.clear()
+        trie.readWords(node, postingList)
+        while (postingList.hasNext()) {
+            ids.add(postingList.next())
+        }
+        writePostings(postingsOut, ids)
+    }
+
+    private data class NodeKey(val isWord: Boolean, val childChars: String, val childOffsets: List<Int>)
+}
+
+fun saveDawg(out: OutputStream, dawg: CreateDawg) {
+    val nodes = dawg.nodes
+    writeHeader(out, TrieFormat.DAWG, dawg.rootOffset, TrieFormat.HEADER_SIZE + nodes.size)
+    out.write(nodes)
+    writeInt(out, dawg.postingOffsets.size)
+    dawg.postingOffsets.forEach { writeInt(out, it) }
+    out.write(dawg.postings)
+    out.flush()
+    out.close()
+}
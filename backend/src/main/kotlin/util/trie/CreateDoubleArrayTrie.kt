@@ -0,0 +1,194 @@
+package util.trie
+
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.util.ArrayDeque
+import kotlin.math.max
+
+/**
+ * converts an INDEXED trie into the arrays of a DoubleArrayTrie. the nodes are placed breadth first, the base of every
+ * node is the first position where all of its children fit into free slots, the codes of its children are appended to
+ * the child lists. the INDEXED trie is usually memory mapped, so only the resulting arrays have to fit into memory.
+ */
+class CreateDoubleArrayTrie(private val trie: IndexedTrie) {
+
+    companion object {
+        private val FREE = -1
+    }
+
+    /**
+     * all chars of the trie ordered by frequency, the code of a char is its index + 1
+     */
+    val alphabet: CharArray
+    private val codes = IntArray(Char.MAX_VALUE.toInt() + 1)
+
+    var base = IntArray(1024)
+        private set
+    var check = IntArray(1024) { FREE }
+        private set
+    var words = IntArray(1024) { DoubleArrayTrie.NO_WORD }
+        private set
+    var childLists = IntArray(1024) { DoubleArrayTrie.NO_CHILDREN }
+        private set
+    var size = 1
+        private set
+
+    /**
+     * the child lists of all nodes with children: the number of children followed by their codes
+     */
+    var childListChars = CharArray(1024)
+        private set
+    var childListsSize = 0
+        private set
+
+    private val postingsOut = ByteArrayOutputStream()
+    private val postingList = PostingList()
+
+    private var nextCheckPosition = 0
+
+    init {
+        val charCounts = mutableMapOf<Char, Int>()
+        countChars(trie.rootNode, charCounts)
+        alphabet = charCounts.entries
+            .sortedWith(compareByDescending<Map.Entry<Char, Int>> { it.value }.thenBy { it.key })
+            .map { it.key }
+            .toCharArray()
+        alphabet.forEachIndexed { i, char -> codes[char.toInt()] = i + 1 }
+
+        words[DoubleArrayTrie.ROOT] = savePostings(trie.rootNode)
+        val queue = ArrayDeque<Pair<Int, Long>>()
+        queue.add(Pair(DoubleArrayTrie.ROOT, trie.rootNode))
+        while (queue.isNotEmpty()) {
+            val (index, node) = queue.poll()
+            val children = (0 until trie.getChildCount(node)).sortedBy { codes[trie.getChildChar(node, it).toInt()] }
+            if (children.isEmpty()) {
+                continue
+            }
+            val childCodes = children.map { codes[trie.getChildChar(node, it).toInt()] }.toIntArray()
+            val nodeBase = findBase(childCodes)
+            base[index] = nodeBase
+            childLists[index] = addChildList(childCodes)
+            children.forEachIndexed { i, child ->
+                val childIndex = nodeBase + childCodes[i]
+                check[childIndex] = index
+                val childNode = trie.getChildAt(node, child)
+                words[childIndex] = savePostings(childNode)
+                size = max(size, childIndex + 1)
+                queue.add(Pair(childIndex, childNode))
+            }
+        }
+    }
+
+    private fun countChars(node: Long, charCounts: MutableMap<Char, Int>) {
+        for (i in 0 until trie.getChildCount(node)) {
+            val char = trie.getChildChar(node, i)
+            charCounts[char] = (charCounts[char] ?: 0) + 1
+            countChars(trie.getChildAt(node, i), charCounts)
+        }
+    }
+
+    private fun addChildList(childCodes: IntArray): Int {
+        val offset = childListsSize
+        if (childListsSize + childCodes.size + 1 > childListChars.size) {
+            childListChars = childListChars.copyOf(max(childListsSize + childCodes.size + 1, childListChars.size * 2))
+        }
+        childListChars[childListsSize++] = childCodes.size.toChar()
+        childCodes.forEach { childListChars[childListsSize++] = it.toChar() }
+        return offset
+    }
+
+    /**
+     * the posting lists, the words array contains the offsets into them
+     */
+    val postings: ByteArray
+        get() = postingsOut.toByteArray()
+
+    private fun savePostings(node: Long): Int {
+        if (!trie.isWord(node)) {
+            return DoubleArrayTrie.NO_WORD
+        }
+        val offset = postingsOut.size()
+        val ids = mutableListOf<Int>()
+        trie.readWords(node, postingList)
+        while (postingList.hasNext()) {
+            ids.add(postingList.next())
+        }
+        writePostings(postingsOut, ids)
+        return offset
+    }
+
+    /**
+     * first fit search for a base where all child codes point to free slots. nextCheckPosition skips the densely
+     * packed beginning of the arrays, like it is done in darts
+     */
+    private fun findBase(childCodes: IntArray): Int {
+        var position = max(childCodes[0], nextCheckPosition) - 1
+        var occupied = 0
+        var first = true
+        while (true) {
+            position++
+            ensureCapacity(position + 1)
+            if (check[position] != FREE) {
+                occupied++
+                continue
+            }
+            if (first) {
+                nextCheckPosition = position
+                first = false
+            }
+            val candidate = position - childCodes[0]
+            ensureCapacity(candidate + childCodes.last() + 1)
+            if (childCodes.all { check[candidate + it] == FREE }) {
+                if (occupied.toDouble() / (position - nextCheckPosition + 1) >= 0.95) {
+                    nextCheckPosition = position
+                }
+                return candidate
+            }
+        }
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity <= check.size) {
+            return
+        }
+        val newSize = max(capacity, check.size * 2)
+        val oldSize = check.size
+        base = base.copyOf(newSize)
+        check = check.copyOf(newSize)
+        check.fill(FREE, oldSize)
+        words = words.copyOf(newSize)
+        words.fill(DoubleArrayTrie.NO_WORD, oldSize)
+        childLists = childLists.copyOf(newSize)
+        childLists.fill(DoubleArrayTrie.NO_CHILDREN, oldSize)
+    }
+}
+
+fun saveDoubleArrayTrie(out: OutputStream, trie: CreateDoubleArrayTrie) {
+    writeInt(out, TrieFormat.MAGIC)
+    writeInt(out, TrieFormat.DOUBLE_ARRAY.version)
+    writeInt(out, trie.alphabet.size)
+    writeInt(out, trie.size)
+    writeInt(out, trie.childListsSize)
+    writeChars(out, trie.alphabet, trie.alphabet.size)
+    for (i in 0 until trie.size) writeInt(out, trie.base[i])
+    for (i in 0 until trie.size) writeInt(out, trie.check[i])
+    for (i in 0 until trie.size) writeInt(out, trie.words[i])
+    for (i in 0 until trie.size) writeInt(out, trie.childLists[i])
+    writeChars(out, trie.childListChars, trie.childListsSize)
+    out.write(trie.postings)
+    out.flush()
+    out.close()
+}
+
+/**
+ * writes the first count chars padded to 4 bytes
+ */
+private fun writeChars(out: OutputStream, chars: CharArray, count: Int) {
+    for (i in 0 until count) {
+        out.write(chars[i].toInt().shr(8))
+        out.write(chars[i].toInt())
+    }
+    for (i in count * 2 until DoubleArrayTrie.charsByteSize(count)) {
+        out.write(0)
+    }
+}
@@ -0,0 +1,101 @@
+package util.trie
+
+import java.nio.ByteBuffer
+
+/**
+ * trie implementation based on a minimized directed acyclic word graph. nodes with the same subtree are stored only
+ * once, so a node doesn't know the word it was reached with. instead every word gets its rank in the sorted list of all
+ * words, which is calculated while walking down: the rank of a child is the rank of its parent, plus one if the parent
+ * is a word itself, plus the number of words below the preceding siblings. the handle of a node is its rank in the upper
+ * and its offset in the lower 32 bits.
+ *
+ * node layout: word flag, child count, sorted child chars, child offsets, number of words below the preceding siblings
+ * of every child.
+ * the postings offset in the header points to the word count, followed by the offset of the posting list of every rank
+ * and the posting lists.
+ */
+class DawgTrie(private val buffer: ByteBuffer) : Trie {
+
+    companion object {
+        val WORD_FLAG_OFFSET = 0
+        val CHILD_COUNT_OFFSET = 1
+        val CHILD_COUNT_SIZE = 2
+        val CHAR_SIZE = 2
+        val CHILD_OFFSET_SIZE = 4
+        val WORDS_BEFORE_SIZE = 4
+
+        fun handle(rank: Int, offset: Int): Long {
+            return rank.toLong().shl(32) or (offset.toLong() and 0xFFFFFFFFL)
+        }
+    }
+
+    override val rootNode = handle(0, buffer.getInt(TrieFormat.ROOT_OFFSET_OFFSET))
+    override val byteSize = buffer.capacity().toLong()
+    private val rankTableOffset = buffer.getInt(TrieFormat.POSTINGS_OFFSET_OFFSET) + 4
+    private val postingsOffset = rankTableOffset + buffer.getInt(rankTableOffset - 4) * 4
+
+    private fun rank(node: Long): Int {
+        return node.ushr(32).toInt()
+    }
+
+    private fun offset(node: Long): Int {
+        return node.toInt()
+    }
+
+    override fun isWord(node: Long): Boolean {
+        return buffer.get(offset(node) + WORD_FLAG_OFFSET) != 0.toByte()
+    }
+
+    override fun getWord(node: Long): Int {
+        return readFirstPosting(buffer, postingIndex(node))
+    }
+
+    override fun readWords(node: Long, postings: PostingList) {
+        postings.reset(buffer, postingIndex(node))
+    }
+
+    private fun postingIndex(node: Long): Int {
+        return postingsOffset + buffer.getInt(rankTableOffset + rank(node) * 4)
+    }
+
+    override fun getChildCount(node: Long): Int {
+        return buffer.getShort(offset(node) + CHILD_COUNT_OFFSET).toInt() and 0xFFFF
+    }
+
+    override fun getChildChar(node: Long, index: Int): Char {
+        return buffer.getChar(offset(node) + CHILD_COUNT_OFFSET + CHILD_COUNT_SIZE + index * CHAR_SIZE)
+    }
+
+    override fun getChildAt(node: Long, index: Int): Long {
+        return childHandle(node, getChildCount(node), index)
+    }
+
+    private fun childHandle(node: Long, childCount: Int, index: Int): Long {
+        val offsetsIndex = offset(node) + CHILD_COUNT_OFFSET + CHILD_COUNT_SIZE + childCount * CHAR_SIZE
+        val wordsBeforeIndex = offsetsIndex + childCount * CHILD_OFFSET_SIZE
+        val childRank = rank(node) + (if (isWord(node)) 1 else 0) +
+                buffer.getInt(wordsBeforeIndex + index * WORDS_BEFORE_SIZE)
+        return handle(childRank, buffer.getInt(offsetsIndex + index * CHILD_OFFSET_SIZE))
+    }
+
+    /**
+     * binary search in the sorted child chars like in IndexedTrie
+     */
+    override fun getChild(node: Long, char: Char): Long {
+        val offset = offset(node)
+        val childCount = buffer.getShort(offset + CHILD_COUNT_OFFSET).toInt() and 0xFFFF
+        val charsIndex = offset + CHILD_COUNT_OFFSET + CHILD_COUNT_SIZE
+        var low = 0
+        var high = childCount - 1
+        while (low <= high) {
+            val mid = (low + high).ushr(1)
+            val midChar = buffer.getChar(charsIndex + mid * CHAR_SIZE)
+            when {
+                midChar < char -> low = mid + 1
+                midChar > char -> high = mid - 1
+                else -> return childHandle(node, childCount, mid)
+            }
+        }
+        return Trie.NO_NODE
+    }
+}
@@ -0,0 +1,108 @@
+package util.trie
+
+import java.nio.ByteBuffer
+import java.nio.IntBuffer
+
+/**
+ * trie implementation based on a double-array (BASE/CHECK). every char of the alphabet is mapped to a code > 0, the
+ * child of the node s for a char with code c is t = base[s] + c, which is only valid if check[t] == s. this way every
+ * child lookup is one addition and one comparison instead of a search through the children. to enumerate the children
+ * without probing every char of the alphabet, every node stores the offset of its child list, which contains the
+ * number of its children and their codes in ascending order.
+ *
+ * file layout after the header (magic, version):
+ * alphabet size, array size, child list size (in chars), alphabet chars (code = index + 1, padded to 4 bytes), base
+ * array, check array, word array (offset of the posting list of every node or NO_WORD), child list array (offset of
+ * the child list of every node or NO_CHILDREN), child lists (padded to 4 bytes), posting lists
+ */
+class DoubleArrayTrie(private val buffer: ByteBuffer) : Trie {
+
+    companion object {
+        val ALPHABET_SIZE_OFFSET = 8
+        val ARRAY_SIZE_OFFSET = 12
+        val CHILD_LISTS_SIZE_OFFSET = 16
+        val ALPHABET_OFFSET = 20
+        val ROOT = 0
+        val NO_WORD = -1
+        val NO_CHILDREN = -1
+
+        /**
+         * the number of bytes of the passed number of chars padded to 4 bytes
+         */
+        fun charsByteSize(charCount: Int): Int {
+            return (charCount * 2 + 3) / 4 * 4
+        }
+    }
+
+    private val codes = IntArray(Char.MAX_VALUE.toInt() + 1)
+    private val alphabet: CharArray
+    private val base: IntBuffer
+    private val check: IntBuffer
+    private val words: IntBuffer
+    private val childLists: IntBuffer
+    private val childListsOffset: Int
+    private val postingsOffset: Int
+
+    init {
+        val alphabetSize = buffer.getInt(ALPHABET_SIZE_OFFSET)
+        val size = buffer.getInt(ARRAY_SIZE_OFFSET)
+        alphabet = CharArray(alphabetSize) { buffer.getChar(ALPHABET_OFFSET + it * 2) }
+        alphabet.forEachIndexed { i, char -> codes[char.toInt()] = i + 1 }
+        val baseOffset = ALPHABET_OFFSET + charsByteSize(alphabetSize)
+        base = intView(buffer, baseOffset, size)
+        check = intView(buffer, baseOffset + size * 4, size)
+        words = intView(buffer, baseOffset + size * 8, size)
+        childLists = intView(buffer, baseOffset + size * 12, size)
+        childListsOffset = baseOffset + size * 16
+        postingsOffset = childListsOffset + charsByteSize(buffer.getInt(CHILD_LISTS_SIZE_OFFSET))
+    }
+
+    private fun intView(buffer: ByteBuffer, offset: Int, size: Int): IntBuffer {
+        val view = buffer.duplicate()
+        view.position(offset)
+        view.limit(offset + size * 4)
+        return view.slice().asIntBuffer()
+    }
+
+    override val rootNode = ROOT.toLong()
+    override val byteSize = buffer.capacity().toLong() + codes.size * 4
+
+    override fun isWord(node: Long): Boolean {
+        return words.get(node.toInt()) != NO_WORD
+    }
+
+    override fun getWord(node: Long): Int {
+        return readFirstPosting(buffer, postingsOffset + words.get(node.toInt()))
+    }
+
+    override fun readWords(node: Long, postings: PostingList) {
+        postings.reset(buffer, postingsOffset + words.get(node.toInt()))
+    }
+
+    override fun getChild(node: Long, char: Char): Long {
+        val code = codes[char.toInt()]
+        if (code == 0) {
+            return Trie.NO_NODE
+        }
+        val index = node.toInt()
+        val child = base.get(index) + code
+        return if (child < check.limit() && check.get(child) == index) child.toLong() else Trie.NO_NODE
+    }
+
+    override fun getChildCount(node: Long): Int {
+        val childList = childLists.get(node.toInt())
+        return if (childList == NO_CHILDREN) 0 else buffer.getChar(childListsOffset + childList * 2).toInt()
+    }
+
+    override fun getChildChar(node: Long, index: Int): Char {
+        return alphabet[childCode(node, index) - 1]
+    }
+
+    override fun getChildAt(node: Long, index: Int): Long {
+        return (base.get(node.toInt()) + childCode(node, index)).toLong()
+    }
+
+    private fun childCode(node: Long, index: Int): Int {
+        return buffer.getChar(childListsOffset + (childLists.get(node.toInt()) + 1 + index) * 2).toInt()
+    }
+}
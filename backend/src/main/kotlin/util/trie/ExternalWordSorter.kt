@@ -0,0 +1,98 @@
+package util.trie
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.PriorityQueue
+
+/**
+ * Sorts (word, place id) pairs by word and id with bounded memory. The pairs are collected in chunks of chunkSize
+ * entries, every full chunk is sorted and written to a temporary file and in the end all chunks are merged while they
+ * are read.
+ */
+class ExternalWordSorter(private val chunkSize: Int = 500_000) : Closeable {
+
+    companion object {
+        private val ORDER = compareBy<Pair<String, Int>>({ it.first }, { it.second })
+    }
+
+    private val chunk = mutableListOf<Pair<String, Int>>()
+    private val chunkFiles = mutableListOf<Path>()
+
+    fun add(word: String, id: Int) {
+        chunk.add(Pair(word, id))
+        if (chunk.size >= chunkSize) {
+            spillChunk()
+        }
+    }
+
+    private fun spillChunk() {
+        chunk.sortWith(ORDER)
+        val chunkFile = Files.createTempFile("words", ".chunk")
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(chunkFile))).use { out ->
+            chunk.forEach {
+                out.writeUTF(it.first)
+                out.writeInt(it.second)
+            }
+        }
+        chunkFiles.add(chunkFile)
+        chunk.clear()
+    }
+
+    /**
+     * calls the action for all added pairs in sorted order
+     */
+    fun forEachSorted(action: (String, Int) -> Unit) {
+        if (chunkFiles.isEmpty()) {
+            chunk.sortWith(ORDER)
+            chunk.forEach { action(it.first, it.second) }
+            return
+        }
+        if (chunk.isNotEmpty()) {
+            spillChunk()
+        }
+        val readers = chunkFiles.map { ChunkReader(it) }
+        try {
+            val queue = PriorityQueue<ChunkReader>(readers.size) { a, b -> ORDER.compare(a.current!!, b.current!!) }
+            readers.filter { it.next() }.forEach { queue.add(it) }
+            while (queue.isNotEmpty()) {
+                val reader = queue.poll()
+                action(reader.current!!.first, reader.current!!.second)
+                if (reader.next()) {
+                    queue.add(reader)
+                }
+            }
+        } finally {
+            readers.forEach { it.close() }
+        }
+    }
+
+    override fun close() {
+        chunk.clear()
+        chunkFiles.forEach { Files.deleteIfExists(it) }
+        chunkFiles.clear()
+    }
+
+    private class ChunkReader(chunkFile: Path) : Closeable {
+        private val input = DataInputStream(BufferedInputStream(Files.newInputStream(chunkFile)))
+        var current: Pair<String, Int>? = null
+
+        fun next(): Boolean {
+            current = try {
+                Pair(input.readUTF(), input.readInt())
+            } catch (e: EOFException) {
+                null
+            }
+            return current != null
+        }
+
+        override fun close() {
+            input.close()
+        }
+    }
+}
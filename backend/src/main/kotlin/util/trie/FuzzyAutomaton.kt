@@ -0,0 +1,127 @@
+package util.trie
+
+import org.apache.commons.text.similarity.LevenshteinDistance
+import java.util.ArrayDeque
+import java.util.TreeMap
+
+/**
+ * A small automaton accepting the strings a position of a phrase may be replaced with. Strings with a common prefix
+ * share their states, so the prefix is only looked up once in the trie. The transitions of a state are the range
+ * firstTransition[state] until firstTransition[state + 1] of transitionChars and transitionTargets, the start state is 0.
+ */
+class FuzzyAutomaton(strings: Collection<String>) {
+
+    val firstTransition: IntArray
+    val transitionChars: CharArray
+    val transitionTargets: IntArray
+    val accepting: BooleanArray
+
+    /**
+     * the string every accepting state stands for, null for all other states
+     */
+    val acceptedStrings: Array<String?>
+
+    init {
+        val root = BuildState()
+        strings.forEach { string ->
+            var state = root
+            string.forEach { state = state.children.getOrPut(it) { BuildState() } }
+            state.acceptedString = string
+        }
+
+        // breadth first numbering, so the transitions of every state are one range
+        val states = mutableListOf(root)
+        val queue = ArrayDeque<BuildState>()
+        queue.add(root)
+        while (queue.isNotEmpty()) {
+            queue.poll().children.values.forEach {
+                states.add(it)
+                queue.add(it)
+            }
+        }
+        val numbers = states.withIndex().associate { it.value to it.index }
+        firstTransition = IntArray(states.size + 1)
+        transitionChars = CharArray(states.size - 1)
+        transitionTargets = IntArray(states.size - 1)
+        accepting = BooleanArray(states.size) { states[it].accepting }
+        acceptedStrings = Array(states.size) { states[it].acceptedString }
+        var transition = 0
+        states.forEachIndexed { i, state ->
+            firstTransition[i] = transition
+            state.children.forEach { (char, child) ->
+                transitionChars[transition] = char
+                transitionTargets[transition] = numbers.getValue(child)
+                transition++
+            }
+        }
+        firstTransition[states.size] = transition
+    }
+
+    private class BuildState {
+        val children = TreeMap<Char, BuildState>()
+        var acceptedString: String? = null
+        val accepting: Boolean
+            get() = acceptedString != null
+    }
+}
+
+/**
+ * The fuzzy groups compiled into one FuzzyAutomaton for every rule, so matching a phrase doesn't need to create and
+ * look up strings. The strings of a position depend on its char and on the pair of its char and the next one.
+ * groupCosts contains every group with the cost of replacing one of its strings by another one.
+ */
+class FuzzyRules(groups: Map<String, Set<String>>, private val groupCosts: List<Pair<Set<String>, Int>>) {
+
+    companion object {
+        private val LEVENSHTEIN_DISTANCE = LevenshteinDistance()
+    }
+
+    private val singles = HashMap<Char, FuzzyAutomaton>()
+    private val pairs = HashMap<Int, FuzzyAutomaton>()
+
+    init {
+        groups.keys.filter { it.length == 1 }.forEach {
+            singles[it[0]] = FuzzyAutomaton(groups.getValue(it))
+        }
+        groups.keys.filter { it.length == 2 }.forEach {
+            val strings = (groups[it.substring(0, 1)] ?: emptySet()) + groups.getValue(it)
+            pairs[pairKey(it[0], it[1])] = FuzzyAutomaton(strings)
+        }
+    }
+
+    private fun pairKey(first: Char, second: Char): Int {
+        return first.toInt().shl(16) or second.toInt()
+    }
+
+    /**
+     * returns the automaton for the position of the word. without any rule for it, the char itself and the char
+     * doubled are accepted
+     */
+    fun forPosition(word: String, depth: Int): FuzzyAutomaton {
+        val char = word[depth]
+        if (depth + 1 < word.length) {
+            val pair = pairs[pairKey(char, word[depth + 1])]
+            if (pair != null) {
+                return pair
+            }
+        }
+        return singles[char] ?: FuzzyAutomaton(listOf(char.toString(), "$char$char"))
+    }
+
+    /**
+     * the cost of matching the part of the phrase with the replacement: 0 if they are equal, otherwise their edit
+     * distance or the cost of a group containing both, whatever is smaller
+     */
+    fun substitutionCost(replacement: String, phrasePart: String): Int {
+        if (replacement == phrasePart) {
+            return 0
+        }
+        var cost = LEVENSHTEIN_DISTANCE.apply(replacement, phrasePart)
+        for ((group, groupCost) in groupCosts) {
+            if (groupCost < cost && group.contains(replacement) && group.contains(phrasePart)) {
+                cost = groupCost
+            }
+        }
+        return cost
+    }
+}
@@ -0,0 +1,132 @@
+package util.trie
+
+import util.Match
+import util.Matcher
+import util.SearchBudget
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Matcher which intersects a Levenshtein automaton of the phrase suffix with the trie. The automaton is simulated by a
+ * row of the edit distance matrix for every depth of the trie path: row[j] is the distance between the trie path and
+ * the next j chars of the phrase. Only a band of MAX_DISTANCE cells around the diagonal can stay within the budget, so
+ * only the band is calculated, and a branch is pruned as soon as its whole row exceeds MAX_DISTANCE. Therefore the
+ * cost of a search is bounded by the size of the trie within MAX_DISTANCE of the phrase, no matter which typos the
+ * phrase contains.
+ */
+class LevenshteinMatcher(
+    search: String,
+    private val trie: Trie,
+    private val splitWords: Boolean = false,
+    private val budget: SearchBudget = SearchBudget()
+) : Matcher {
+
+    companion object {
+        val MAX_DISTANCE = 2
+        private val OVER_BUDGET = MAX_DISTANCE + 1
+
+        /**
+         * the distance a match may have, short words would match almost everything with MAX_DISTANCE typos
+         */
+        fun allowedDistance(matchLength: Int): Int {
+            return min(MAX_DISTANCE, matchLength / 3)
+        }
+    }
+
+    private val phrase = PreparedPhrase(search)
+    private val word = phrase.word
+
+    /**
+     * one row per depth of the trie path. a path stays within the budget until it is longer than the phrase plus
+     * MAX_DISTANCE insertions, the row of the first char after that is needed to prune it
+     */
+    private val rows = Array(word.length + MAX_DISTANCE + 2) { IntArray(word.length + 1) }
+    private var startDepth = 0
+    private var suffixLength = 0
+    private val results = mutableSetOf<Match>()
+    private val postings = PostingList()
+
+    override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+        if (depth == word.length) {
+            return Pair(true, emptySet())
+        }
+        startDepth = depth
+        suffixLength = word.length - depth
+        results.clear()
+        val firstRow = rows[0]
+        for (j in 0..suffixLength) {
+            firstRow[j] = min(j, OVER_BUDGET)
+        }
+        searchChildren(trie.rootNode, 0)
+        return Pair(false, results)
+    }
+
+    override fun isEnd(depth: Int): Boolean {
+        return depth == word.length
+    }
+
+    private fun searchChildren(node: Long, pathLength: Int) {
+        var position = trie.getFirstChildPosition(node)
+        while (position != Trie.NO_NODE) {
+            if (!budget.expand()) {
+                return
+            }
+            val child = trie.getChildAtPosition(node, position)
+            if (calculateRow(pathLength + 1, trie.getChildCharAtPosition(node, position))) {
+                if (trie.isWord(child)) {
+                    matched(child, pathLength + 1)
+                }
+                searchChildren(child, pathLength + 1)
+            }
+            position = trie.getNextChildPosition(node, position)
+        }
+    }
+
+    /**
+     * calculates the band of the row for the trie path of the passed length ending with char, returns false if no
+     * cell is within the budget
+     */
+    private fun calculateRow(pathLength: Int, char: Char): Boolean {
+        val previous = rows[pathLength - 1]
+        val row = rows[pathLength]
+        val from = max(1, pathLength - MAX_DISTANCE)
+        val to = min(suffixLength, pathLength + MAX_DISTANCE)
+        row[0] = min(pathLength, OVER_BUDGET)
+        if (from > 1) {
+            row[from - 1] = OVER_BUDGET
+        }
+        var minDistance = row[0]
+        for (j in from..to) {
+            val substitution = previous[j - 1] + if (word[startDepth + j - 1] == char) 0 else 1
+            val distance = min(min(substitution, previous[j] + 1), row[j - 1] + 1)
+            row[j] = min(distance, OVER_BUDGET)
+            minDistance = min(minDistance, row[j])
+        }
+        if (to < suffixLength) {
+            row[to + 1] = OVER_BUDGET
+        }
+        return minDistance <= MAX_DISTANCE
+    }
+
+    /**
+     * adds a match for every place of the node and every end of the phrase within the allowed distance
+     */
+    private fun matched(node: Long, pathLength: Int) {
+        val row = rows[pathLength]
+        val from = max(1, pathLength - MAX_DISTANCE)
+        val to = min(suffixLength, pathLength + MAX_DISTANCE)
+        for (j in from..to) {
+            val endDepth = startDepth + j
+            if (row[j] <= allowedDistance(j) && isAcceptableEnd(endDepth)) {
+                trie.readWords(node, postings)
+                while (postings.hasNext()) {
+                    results.add(Match(postings.next(), endDepth, row[j]))
+                }
+            }
+        }
+    }
+
+    private fun isAcceptableEnd(endDepth: Int): Boolean {
+        return endDepth == word.length || splitWords || phrase.wordBeginnings[endDepth]
+    }
+}
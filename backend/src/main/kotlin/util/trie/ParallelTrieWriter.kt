@@ -0,0 +1,111 @@
+package util.trie
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Writes the same INDEXED trie as StreamingTrieWriter, but the subtrees are written in parallel. The words have to be
+ * partitioned by their first char and the partitions have to be ordered like their words. Every partition is written
+ * to its own temporary files on the pool with offsets relative to these files. Afterwards the subtrees are copied into
+ * the trie file in partition order while their offsets are relocated, followed by the root node and the posting lists,
+ * which results in exactly the bytes of a sequential build.
+ */
+fun writeTrieParallel(partitions: List<ExternalWordSorter>, outputPath: Path, pool: ForkJoinPool) {
+    val subtrees = partitions
+        .map { partition -> pool.submit(Callable { writeSubtree(partition) }) }
+        .map { it.get() }
+    try {
+        val postingsFile = Files.createTempFile("postings", ".trie")
+        val rootOffset: Int
+        val postingsOffset: Int
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(outputPath))).use { out ->
+            writeHeaderPlaceholder(out)
+            val root = OpenTrieNode(0.toChar())
+            var postingsBase = 0
+            for (subtree in subtrees) {
+                val nodesBase = out.size()
+                relocateNodes(subtree, out, nodesBase, postingsBase)
+                root.childChars.addAll(subtree.root.childChars)
+                subtree.root.childOffsets.forEach { root.childOffsets.add(it + nodesBase) }
+                root.words.addAll(subtree.root.words)
+                postingsBase += subtree.postingsSize
+            }
+            root.words.sort()
+            val rootWords = root.words.distinct()
+            root.words.clear()
+            root.words.addAll(rootWords)
+
+            // the posting list of the root is the last one, like in a sequential build
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(postingsFile))).use { rootPostingsOut ->
+                rootOffset = SortedTrieNodeWriter(out, rootPostingsOut, postingsBase).writeNode(root)
+            }
+            postingsOffset = out.size()
+            subtrees.forEach { Files.copy(it.postingsFile, out) }
+            Files.copy(postingsFile, out)
+        }
+        Files.delete(postingsFile)
+        patchHeader(outputPath, rootOffset, postingsOffset)
+    } finally {
+        subtrees.forEach {
+            Files.deleteIfExists(it.nodesFile)
+            Files.deleteIfExists(it.postingsFile)
+        }
+    }
+}
+
+private class Subtree(
+    val nodesFile: Path,
+    val nodesSize: Int,
+    val postingsFile: Path,
+    val postingsSize: Int,
+    val root: OpenTrieNode
+)
+
+private fun writeSubtree(partition: ExternalWordSorter): Subtree {
+    val nodesFile = Files.createTempFile("nodes", ".trie")
+    val postingsFile = Files.createTempFile("postings", ".trie")
+    val nodesOut = DataOutputStream(BufferedOutputStream(Files.newOutputStream(nodesFile)))
+    val postingsOut = DataOutputStream(BufferedOutputStream(Files.newOutputStream(postingsFile)))
+    val root = nodesOut.use {
+        postingsOut.use {
+            val nodeWriter = SortedTrieNodeWriter(nodesOut, postingsOut)
+            partition.forEachSorted { word, id -> nodeWriter.addWord(id, word) }
+            nodeWriter.finish()
+        }
+    }
+    return Subtree(nodesFile, nodesOut.size(), postingsFile, postingsOut.size(), root)
+}
+
+/**
+ * copies the nodes of the subtree and adds the bases to their child and posting offsets
+ */
+private fun relocateNodes(subtree: Subtree, out: DataOutputStream, nodesBase: Int, postingsBase: Int) {
+    DataInputStream(BufferedInputStream(Files.newInputStream(subtree.nodesFile))).use { input ->
+        var position = 0
+        while (position < subtree.nodesSize) {
+            val flag = input.readByte().toInt()
+            out.writeByte(flag)
+            position++
+            if (flag != 0) {
+                out.writeInt(input.readInt() + postingsBase)
+                position += IndexedTrie.POSTING_OFFSET_SIZE
+            }
+            val childCount = input.readUnsignedShort()
+            out.writeShort(childCount)
+            position += IndexedTrie.CHILD_COUNT_SIZE
+            for (i in 0 until childCount) {
+                out.writeChar(input.readChar().toInt())
+            }
+            for (i in 0 until childCount) {
+                out.writeInt(input.readInt() + nodesBase)
+            }
+            position += childCount * (IndexedTrie.CHAR_SIZE + IndexedTrie.CHILD_OFFSET_SIZE)
+        }
+    }
+}
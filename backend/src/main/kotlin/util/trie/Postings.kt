@@ -0,0 +1,112 @@
+package util.trie
+
+import java.io.OutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Cursor over the place ids of a trie node. They are stored as posting list: the number of ids followed by the ascending
+ * ids, each as delta to its predecessor. All numbers are unsigned varints (7 bits per byte, the highest bit marks that
+ * another byte follows).
+ * The cursor is reset by Trie.readWords, so one instance can be reused for any number of nodes without allocating.
+ */
+class PostingList {
+    private var buffer: ByteBuffer? = null
+    private var position = 0
+    private var remaining = 0
+    private var current = 0
+
+    fun hasNext(): Boolean {
+        return remaining > 0
+    }
+
+    fun next(): Int {
+        if (remaining <= 0) {
+            throw NoSuchElementException()
+        }
+        remaining--
+        // single ids are not backed by a buffer, they are stored in current
+        val buffer = buffer ?: return current
+        current += readVarInt(buffer, position)
+        position = skipVarInt(buffer, position)
+        return current
+    }
+
+    fun reset(buffer: ByteBuffer, position: Int) {
+        this.buffer = buffer
+        this.remaining = readVarInt(buffer, position)
+        this.position = skipVarInt(buffer, position)
+        this.current = 0
+    }
+
+    fun reset(id: Int) {
+        this.buffer = null
+        this.remaining = 1
+        this.current = id
+    }
+}
+
+/**
+ * returns the first id of the posting list at the passed position
+ */
+fun readFirstPosting(buffer: ByteBuffer, position: Int): Int {
+    return readVarInt(buffer, skipVarInt(buffer, position))
+}
+
+fun readVarInt(buffer: ByteBuffer, position: Int): Int {
+    var value = 0
+    var shift = 0
+    var i = position
+    while (true) {
+        val byte = buffer.get(i++).toInt()
+        value = value or (byte and 0x7F).shl(shift)
+        if (byte and 0x80 == 0) {
+            return value
+        }
+        shift += 7
+    }
+}
+
+fun skipVarInt(buffer: ByteBuffer, position: Int): Int {
+    var i = position
+    while (buffer.get(i++).toInt() and 0x80 != 0) {
+    }
+    return i
+}
+
+fun writeVarInt(out: OutputStream, value: Int) {
+    var remaining = value
+    while (remaining.ushr(7) != 0) {
+        out.write(remaining and 0x7F or 0x80)
+        remaining = remaining.ushr(7)
+    }
+    out.write(remaining)
+}
+
+fun varIntSize(value: Int): Int {
+    var size = 1
+    var remaining = value.ushr(7)
+    while (remaining != 0) {
+        size++
+        remaining = remaining.ushr(7)
+    }
+    return size
+}
+
+fun writePostings(out: OutputStream, ids: Collection<Int>) {
+    writeVarInt(out, ids.size)
+    var last = 0
+    for (id in ids.sorted()) {
+        writeVarInt(out, id - last)
+        last = id
+    }
+}
+
+fun postingsSize(ids: Collection<Int>): Int {
+    var size = varIntSize(ids.size)
+    var last = 0
+    for (id in ids.sorted()) {
+        size += varIntSize(id - last)
+        last = id
+    }
+    return size
+}
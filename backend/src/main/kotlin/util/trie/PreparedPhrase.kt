@@ -0,0 +1,40 @@
+package util.trie
+
+/**
+ * a search phrase as it is matched against a trie: word contains only the lower case letters of the phrase and
+ * wordBeginnings marks the depths of word at which a new word of the phrase starts
+ */
+class PreparedPhrase(search: String) {
+
+    val word = prepare(search)
+    val wordBeginnings = findWordBeginnings(search, word.length)
+
+    private fun prepare(search: String): String {
+        val word = StringBuilder()
+        for (char in search) {
+            val lowerChar = char.toLowerCase()
+            if (lowerChar.isLetter()) {//TODO numbers and stuff?
+                word.append(lowerChar)
+            }
+        }
+        return word.toString()
+    }
+
+    private fun findWordBeginnings(search: String, length: Int): BooleanArray {
+        val wordBeginnings = BooleanArray(length + 1)
+        var i = 0
+        var lastChar: Char? = null
+        for (char in search) {
+            val lowerChar = char.toLowerCase()
+            if (lowerChar.isLetter()) {
+                i++
+            } else {
+                if (lowerChar.isWhitespace() && !(lastChar == null || lastChar.isWhitespace())) {
+                    wordBeginnings[i] = true
+                }
+            }
+            lastChar = lowerChar
+        }
+        return wordBeginnings
+    }
+}
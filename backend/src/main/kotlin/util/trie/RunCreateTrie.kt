@@ -3,57 +3,234 @@ package util.trie
 import persistence.DachPlaceRepository
 import persistence.PlaceRepository
 import persistence.UsPlaceRepository
+import persistence.PlaceTableWriter
+import persistence.PhoneticIndexWriter
+import util.mapReadOnly
 import java.io.BufferedOutputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.TreeMap
+import java.util.concurrent.ForkJoinPool
 import java.util.stream.Collectors
 import java.util.zip.GZIPOutputStream
+import kotlin.math.max
 import kotlin.system.measureTimeMillis
 
+private val FETCH_SIZE = 10_000
+
 /**
- * Creates the US.trie and DACH.trie files in the resources folder, which is necessary to map phrases to routes. This file is not
- * added to git, therefore it needs to be generated before running the project for the first time.
+ * the number of words every partition keeps in memory before it is sorted and written to disk in a parallel build
+ */
+private val PARTITION_CHUNK_SIZE = 50_000
+
+/**
+ * Creates the trie files (US.trie and DACH.trie) in the resources folder, which are necessary to map phrases to routes.
+ * These files are not added to git, therefore they need to be generated before running the project for the first time.
+ * TRIE_ENGINES additionally selects the engines besides the binary trie to create, e.g. "double_array,dawg" creates
+ * US.datrie, US.dawg, DACH.datrie and DACH.dawg as well. Unlike the binary trie these are built in memory, so by
+ * default they are not created.
+ * If the TRIE_DIRECTORY environment variable is set, an uncompressed copy of each trie is written there as well, which
+ * can be memory mapped at runtime instead of being inflated from the jar. Next to them a place table (US.places and
+ * DACH.places) is written, which is used to build routes without querying the database, and a phonetic index
+ * (US.phonetic and DACH.phonetic), which is used to find phonetic matches without querying the database.
+ * TRIE_BUILD_PARALLELISM sets the number of threads used to build a trie, it defaults to the number of processors.
  */
 fun main() {
-    createAndSaveTrie("[US]", UsPlaceRepository(), "src/main/resources/US.trie")
-    createAndSaveTrie("[DACH]", DachPlaceRepository(), "src/main/resources/DACH.trie")
+    val trieDirectory = System.getenv("TRIE_DIRECTORY")
+    val parallelism = System.getenv("TRIE_BUILD_PARALLELISM")?.toInt() ?: Runtime.getRuntime().availableProcessors()
+    val engines = parseEngines(System.getenv("TRIE_ENGINES"))
+    createAndSaveTrie("[US]", UsPlaceRepository(), "US", trieDirectory, parallelism = parallelism, engines = engines)
+    createAndSaveTrie("[DACH]", DachPlaceRepository(), "DACH", trieDirectory, parallelism = parallelism, engines = engines)
+}
+
+/**
+ * the binary trie and the engines of the comma separated list of engine ids
+ */
+fun parseEngines(engineIds: String?): Set<TrieEngine> {
+    val engines = mutableSetOf(TrieEngine.BINARY)
+    engineIds?.split(",")?.map { it.trim() }?.filter { it.isNotEmpty() }?.forEach {
+        engines.add(TrieEngine.fromId(it) ?: throw IllegalArgumentException("Unknown trie engine $it"))
+    }
+    return engines
 }
 
-fun createAndSaveTrie(logPrefix: String, placeRepository: PlaceRepository, fileOutputPath: String) {
-    var trie: CreateTrie? = null
+/**
+ * builds the tries of a region without keeping all places in memory. the places are streamed from the database into an
+ * external sort, the sorted words are written to an INDEXED trie file and the double array trie is converted from the
+ * memory mapped INDEXED trie. the double array trie and the DAWG are only created if they are part of the engines,
+ * they are built in memory from the memory mapped INDEXED trie. the compressed copies in the resources are created
+ * from the uncompressed files.
+ * with a parallelism above 1 the words are sorted in partitions by their first char and the subtrees of the partitions
+ * are written in parallel, the resulting files are the same.
+ */
+fun createAndSaveTrie(
+    logPrefix: String,
+    placeRepository: PlaceRepository,
+    fileName: String,
+    uncompressedOutputDirectory: String? = null,
+    outputDirectory: String = "src/main/resources",
+    parallelism: Int = 1,
+    engines: Set<TrieEngine> = setOf(TrieEngine.BINARY)
+) {
+    val workDirectory = if (uncompressedOutputDirectory != null) {
+        Files.createDirectories(Paths.get(uncompressedOutputDirectory))
+    } else {
+        Files.createTempDirectory("trie")
+    }
+    val triePath = workDirectory.resolve("$fileName${TrieEngine.BINARY.fileExtension}")
+    val doubleArrayTriePath = workDirectory.resolve("$fileName${TrieEngine.DOUBLE_ARRAY.fileExtension}")
+    val dawgPath = workDirectory.resolve("$fileName${TrieEngine.DAWG.fileExtension}")
+    val pool = ForkJoinPool(parallelism)
+    val partitions = TreeMap<Char, ExternalWordSorter>()
     var measureTimeMillis: Long
-    measureTimeMillis = measureTimeMillis {
-        trie = createTrie(placeRepository)
+
+    try {
+        var placeCount = 0
+        var wordCount = 0
+        measureTimeMillis = measureTimeMillis {
+            val placeTableWriter = uncompressedOutputDirectory?.let { PlaceTableWriter() }
+            val phoneticIndexWriter = uncompressedOutputDirectory?.let { PhoneticIndexWriter() }
+            try {
+                placeRepository.forEachPlace(FETCH_SIZE) {
+                    val word = prepare(it.name)
+                    if (word.isNotEmpty()) {
+                        val partition = if (parallelism > 1) {
+                            partitions.getOrPut(word[0]) { ExternalWordSorter(PARTITION_CHUNK_SIZE) }
+                        } else {
+                            partitions.getOrPut(0.toChar()) { ExternalWordSorter() }
+                        }
+                        partition.add(word, it.id.toInt())
+                        wordCount++
+                    }
+                    if (it.name.isNotEmpty()) {
+                        placeTableWriter?.add(it)
+                        phoneticIndexWriter?.add(it)
+                    }
+                    placeCount++
+                    if (placeCount % 100_000 == 0) {
+                        println("$logPrefix loaded $placeCount places")
+                    }
+                }
+                placeTableWriter?.writeTo(
+                    openTrieOutput("$uncompressedOutputDirectory/$fileName.places", false)
+                )
+                phoneticIndexWriter?.writeTo(
+                    openTrieOutput("$uncompressedOutputDirectory/$fileName.phonetic", false)
+                )
+            } finally {
+                placeTableWriter?.close()
+                phoneticIndexWriter?.close()
+            }
+        }
+        println("$logPrefix loading $placeCount places took: $measureTimeMillis ms (${throughput(placeCount, measureTimeMillis)} places/s)")
+
+        measureTimeMillis = measureTimeMillis {
+            if (parallelism > 1) {
+                writeTrieParallel(partitions.values.toList(), triePath, pool)
+            } else {
+                StreamingTrieWriter(triePath).use { writer ->
+                    partitions.values.forEach { partition ->
+                        partition.forEachSorted { word, id -> writer.addWord(id, word) }
+                    }
+                }
+            }
+        }
+        println("$logPrefix sorting and writing $wordCount words in ${partitions.size} partitions took: $measureTimeMillis ms (${throughput(wordCount, measureTimeMillis)} words/s)")
+    } finally {
+        partitions.values.forEach { it.close() }
+        pool.shutdown()
     }
-    println("$logPrefix create took: $measureTimeMillis ms")
-    measureTimeMillis = measureTimeMillis {
-        trie!!.calculateOffsets()
+
+    val paths = mutableListOf(triePath)
+    if (engines.contains(TrieEngine.DOUBLE_ARRAY)) {
+        measureTimeMillis = measureTimeMillis {
+            val doubleArrayTrie = CreateDoubleArrayTrie(IndexedTrie(mapReadOnly(triePath)))
+            saveDoubleArrayTrie(openTrieOutput(doubleArrayTriePath.toString(), false), doubleArrayTrie)
+        }
+        println("$logPrefix create double array took: $measureTimeMillis ms")
+        paths.add(doubleArrayTriePath)
+    }
+
+    if (engines.contains(TrieEngine.DAWG)) {
+        var dawg: CreateDawg? = null
+        measureTimeMillis = measureTimeMillis {
+            dawg = CreateDawg(IndexedTrie(mapReadOnly(triePath)))
+            saveDawg(openTrieOutput(dawgPath.toString(), false), dawg!!)
+        }
+        println("$logPrefix create dawg took: $measureTimeMillis ms (${dawg!!.nodeCount} of ${dawg!!.trieNodeCount} nodes)")
+        paths.add(dawgPath)
     }
-    println("$logPrefix calculating offset took: $measureTimeMillis ms")
+
     measureTimeMillis = measureTimeMillis {
-        saveTrie(trie!!, fileOutputPath)
+        paths.parallelStream().forEach { path ->
+            openTrieOutput("$outputDirectory/${path.fileName}", true).use { Files.copy(path, it) }
+        }
+    }
+    val megabytes = paths.map { Files.size(it) }.sum() / (1024 * 1024)
+    println("$logPrefix compressing $megabytes MB to $outputDirectory took: $measureTimeMillis ms (${throughput(megabytes.toInt(), measureTimeMillis)} MB/s)")
+    printSizes(logPrefix, paths, outputDirectory)
+
+    if (uncompressedOutputDirectory == null) {
+        paths.forEach { Files.delete(it) }
+        Files.delete(workDirectory)
     }
-    println("$logPrefix save took: $measureTimeMillis ms")
 }
 
-fun saveTrie(trie: CreateTrie, outputPath: String) {
-    val out =
-        BufferedOutputStream(
-            GZIPOutputStream(
-                FileOutputStream(File(outputPath))
-            )
-        )
+/**
+ * prints the uncompressed and compressed size of every trie file and how much smaller it is than the binary trie
+ */
+private fun printSizes(logPrefix: String, paths: List<Path>, outputDirectory: String) {
+    val binarySize = Files.size(paths[0])
+    for (path in paths) {
+        val size = Files.size(path)
+        val compressedSize = Files.size(Paths.get(outputDirectory, path.fileName.toString()))
+        val reduction = 100 - size * 100 / max(binarySize, 1)
+        println("$logPrefix ${path.fileName}: $size bytes, $compressedSize bytes compressed, $reduction% smaller than ${paths[0].fileName}")
+    }
+}
+
+private fun throughput(count: Int, millis: Long): Long {
+    return count * 1000L / max(millis, 1)
+}
+
+fun saveTrie(trie: CreateTrie, outputPath: String, compress: Boolean = true) {
+    saveTrie(openTrieOutput(outputPath, compress), trie)
+}
 
-    saveTrie(out, trie)
+fun openTrieOutput(outputPath: String, compress: Boolean): OutputStream {
+    val file = File(outputPath)
+    file.absoluteFile.parentFile.mkdirs()
+    return BufferedOutputStream(
+        if (compress) GZIPOutputStream(FileOutputStream(file)) else FileOutputStream(file)
+    )
 }
 
 fun saveTrie(out: OutputStream, trie: CreateTrie) {
-    recursiveSaveTrie(out, 0.toChar(), trie.getRoot())
+    when (trie.format) {
+        TrieFormat.LINKED -> recursiveSaveTrie(out, 0.toChar(), trie.getRoot())
+        TrieFormat.INDEXED -> {
+            writeHeader(out, TrieFormat.INDEXED, trie.getRoot().offset, trie.postingsOffset)
+            recursiveSaveIndexedTrie(out, trie.getRoot())
+            recursiveSavePostings(out, trie.getRoot())
+        }
+        TrieFormat.DOUBLE_ARRAY -> throw IllegalArgumentException("use saveDoubleArrayTrie for ${trie.format}")
+        TrieFormat.DAWG -> throw IllegalArgumentException("use saveDawg for ${trie.format}")
+    }
     out.flush()
     out.close()
 }
 
+fun writeHeader(out: OutputStream, format: TrieFormat, rootOffset: Int, postingsOffset: Int) {
+    writeInt(out, TrieFormat.MAGIC)
+    writeInt(out, format.version)
+    writeInt(out, rootOffset)
+    writeInt(out, postingsOffset)
+}
+
 fun recursiveSaveTrie(out: OutputStream, char: Char, node: TrieNodeCreate) {
     out.write(char.toInt().shr(8))
     out.write(char.toInt())
@@ -61,7 +238,7 @@ fun recursiveSaveTrie(out: OutputStream, char: Char, node: TrieNodeCreate) {
     out.write(node.offset.shr(16))
     out.write(node.offset.shr(8))
     out.write(node.offset)
-    //TODO we only save the first id, need extra mapping somewhere
+    // the linked format only contains the first id, use INDEXED to save all of them
     if (node.getWords().isEmpty()) {
         out.write(0)
     } else {
@@ -77,6 +254,47 @@ fun recursiveSaveTrie(out: OutputStream, char: Char, node: TrieNodeCreate) {
     }
 }
 
+fun recursiveSaveIndexedTrie(out: OutputStream, node: TrieNodeCreate) {
+    if (node.getWords().isEmpty()) {
+        out.write(0)
+    } else {
+        out.write(1)
+        writeInt(out, node.postingsOffset)
+    }
+    val children = node.getChildren()
+    out.write(children.size.shr(8))
+    out.write(children.size)
+    children.forEach {
+        out.write(it.key.toInt().shr(8))
+        out.write(it.key.toInt())
+    }
+    children.forEach {
+        writeInt(out, it.value.offset)
+    }
+    children.forEach {
+        recursiveSaveIndexedTrie(out, it.value)
+    }
+}
+
+/**
+ * writes the posting lists in the same order as recursiveSaveIndexedTrie writes the nodes
+ */
+fun recursiveSavePostings(out: OutputStream, node: TrieNodeCreate) {
+    if (node.isWord()) {
+        writePostings(out, node.getWords())
+    }
+    node.getChildren().forEach {
+        recursiveSavePostings(out, it.value)
+    }
+}
+
+fun writeInt(out: OutputStream, value: Int) {
+    out.write(value.shr(24))
+    out.write(value.shr(16))
+    out.write(value.shr(8))
+    out.write(value)
+}
+
 fun prepare(search: String): String {
     return search
         .filter { it.isLetter() } //TODO numbers and stuff?
@@ -84,16 +302,6 @@ fun prepare(search: String): String {
         .stream().collect(Collectors.joining())
 }
 
-fun createTrie(placeRepository: PlaceRepository): CreateTrie {
-    val allPlaces = placeRepository
-        .findAll()
-        .filter { it.name.isNotEmpty() }
-        .map {
-            it.id to prepare(it.name)
-        }
-    return createTrie(allPlaces)
-}
-
 fun createTrie(allPlaces: Collection<Pair<Long, String>>): CreateTrie {
     val trie = CreateTrie()
     var i = 0
@@ -104,7 +312,7 @@ fun createTrie(allPlaces: Collection<Pair<Long, String>>): CreateTrie {
         .forEach {
             i++
             if (i % 10000 == 0) {
-                println("${String.format("%3.0f", i.toFloat() / 2_200_000.toFloat() * 100)}%: ${i}/${2_200_000}")
+                println("added $i of ${allPlaces.size} words")
             }
             trie.addWord(it.first.toInt(), it.second)
         }
@@ -116,10 +324,26 @@ class CreateTrie {
     companion object {
         val NODE_SIZE = 7
         val WORD_SIZE = 4
+        val INDEXED_NODE_SIZE = 3
+        val INDEXED_CHILD_SIZE = 6
     }
 
     private val root = TrieNodeCreate()
 
+    /**
+     * the format the offsets were calculated for
+     */
+    var format = TrieFormat.INDEXED
+        private set
+
+    /**
+     * the offset of the posting list section, only calculated for INDEXED
+     */
+    var postingsOffset = 0
+        private set
+
+    private var postingsSize = 0
+
     fun getRoot(): TrieNodeCreate {
         return root
     }
@@ -142,8 +366,21 @@ class CreateTrie {
         }
     }
 
-    fun calculateOffsets() {
-        calculateOffsetsRecursive(0, root)
+    /**
+     * calculates the offset of every node. for LINKED this is the offset after the subtree of the node, for INDEXED it
+     * is the offset of the node itself and the offset of its posting list
+     */
+    fun calculateOffsets(format: TrieFormat = TrieFormat.INDEXED) {
+        this.format = format
+        when (format) {
+            TrieFormat.LINKED -> calculateOffsetsRecursive(0, root)
+            TrieFormat.INDEXED -> {
+                postingsSize = 0
+                postingsOffset = calculateIndexedOffsetsRecursive(TrieFormat.HEADER_SIZE, root)
+            }
+            TrieFormat.DOUBLE_ARRAY -> throw IllegalArgumentException("use CreateDoubleArrayTrie for $format")
+            TrieFormat.DAWG -> throw IllegalArgumentException("use CreateDawg for $format")
+        }
     }
 
     private fun calculateOffsetsRecursive(oldOffset: Int, node: TrieNodeCreate): Int {
@@ -155,12 +392,28 @@ class CreateTrie {
         node.offset = myOffset
         return myOffset
     }
+
+    private fun calculateIndexedOffsetsRecursive(oldOffset: Int, node: TrieNodeCreate): Int {
+        node.offset = oldOffset
+        if (node.isWord()) {
+            node.postingsOffset = postingsSize
+            postingsSize += postingsSize(node.getWords())
+        }
+        val children = node.getChildren()
+        var myOffset = oldOffset + INDEXED_NODE_SIZE + children.size * INDEXED_CHILD_SIZE
+        myOffset += if (node.getWords().isEmpty()) 0 else WORD_SIZE
+        for (child in children) {
+            myOffset = calculateIndexedOffsetsRecursive(myOffset, child.value)
+        }
+        return myOffset
+    }
 }
 
 class TrieNodeCreate {
     var children: MutableMap<Char, TrieNodeCreate>? = null
     private var wordIndex: MutableSet<Int>? = null
     var offset: Int = 0
+    var postingsOffset: Int = 0
 
     fun hasChild(char: Char): Boolean {
         if (children == null) {
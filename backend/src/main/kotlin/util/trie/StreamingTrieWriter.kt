@@ -0,0 +1,145 @@
+package util.trie
+
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Writes an INDEXED trie file from words which are added in sorted order. As soon as a word doesn't share the path of
+ * the previous word anymore, the nodes of that path are complete and written, children before their parent. So only the
+ * path of the current word is kept in memory, the root node is written last and its offset is patched into the header.
+ * The posting lists are buffered in a temporary file and appended after the nodes.
+ */
+class StreamingTrieWriter(private val outputPath: Path) : Closeable {
+
+    private val out = DataOutputStream(BufferedOutputStream(Files.newOutputStream(outputPath)))
+    private val postingsFile = Files.createTempFile("postings", ".trie")
+    private val postingsOut = DataOutputStream(BufferedOutputStream(Files.newOutputStream(postingsFile)))
+    private val nodeWriter = SortedTrieNodeWriter(out, postingsOut)
+    private var closed = false
+
+    init {
+        writeHeaderPlaceholder(out)
+    }
+
+    fun addWord(id: Int, word: String) {
+        nodeWriter.addWord(id, word)
+    }
+
+    /**
+     * writes the remaining path, the root node and the posting lists
+     */
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        val rootOffset = nodeWriter.writeNode(nodeWriter.finish())
+        val postingsOffset = out.size()
+        postingsOut.close()
+        Files.copy(postingsFile, out)
+        out.close()
+        Files.delete(postingsFile)
+        patchHeader(outputPath, rootOffset, postingsOffset)
+    }
+}
+
+internal fun writeHeaderPlaceholder(out: DataOutputStream) {
+    out.writeInt(TrieFormat.MAGIC)
+    out.writeInt(TrieFormat.INDEXED.version)
+    out.writeInt(0) // root offset, patched on close
+    out.writeInt(0) // postings offset, patched on close
+}
+
+internal fun patchHeader(outputPath: Path, rootOffset: Int, postingsOffset: Int) {
+    RandomAccessFile(outputPath.toFile(), "rw").use {
+        it.seek(TrieFormat.ROOT_OFFSET_OFFSET.toLong())
+        it.writeInt(rootOffset)
+        it.writeInt(postingsOffset)
+    }
+}
+
+/**
+ * Writes the nodes of sorted words in INDEXED layout to nodesOut and their posting lists to postingsOut. The offsets
+ * of the nodes are positions in nodesOut, the posting offsets are positions in postingsOut plus postingsBase.
+ */
+internal class SortedTrieNodeWriter(
+    private val nodesOut: DataOutputStream,
+    private val postingsOut: DataOutputStream,
+    private val postingsBase: Int = 0
+) {
+
+    /**
+     * the nodes of the path of the last word, path[0] is the root node
+     */
+    private val path = mutableListOf(OpenTrieNode(0.toChar()))
+    private var lastWord = ""
+
+    fun addWord(id: Int, word: String) {
+        if (word < lastWord) {
+            throw IllegalArgumentException("Words must be added in sorted order, \"$word\" was added after \"$lastWord\"")
+        }
+        var commonPrefixLength = 0
+        while (commonPrefixLength < word.length && commonPrefixLength < lastWord.length &&
+            word[commonPrefixLength] == lastWord[commonPrefixLength]
+        ) {
+            commonPrefixLength++
+        }
+        while (path.size - 1 > commonPrefixLength) {
+            finishLastNode()
+        }
+        for (i in commonPrefixLength until word.length) {
+            path.add(OpenTrieNode(word[i]))
+        }
+        path.last().addWord(id)
+        lastWord = word
+    }
+
+    private fun finishLastNode() {
+        val node = path.removeAt(path.size - 1)
+        val offset = writeNode(node)
+        path.last().childChars.add(node.char)
+        path.last().childOffsets.add(offset)
+    }
+
+    /**
+     * writes all nodes except the root, which is returned
+     */
+    fun finish(): OpenTrieNode {
+        while (path.size > 1) {
+            finishLastNode()
+        }
+        return path[0]
+    }
+
+    fun writeNode(node: OpenTrieNode): Int {
+        val offset = nodesOut.size()
+        if (node.words.isEmpty()) {
+            nodesOut.writeByte(0)
+        } else {
+            nodesOut.writeByte(1)
+            nodesOut.writeInt(postingsBase + postingsOut.size())
+            writePostings(postingsOut, node.words)
+        }
+        nodesOut.writeShort(node.childChars.size)
+        node.childChars.forEach { nodesOut.writeChar(it.toInt()) }
+        node.childOffsets.forEach { nodesOut.writeInt(it) }
+        return offset
+    }
+}
+
+internal class OpenTrieNode(val char: Char) {
+    val words = mutableListOf<Int>()
+    val childChars = mutableListOf<Char>()
+    val childOffsets = mutableListOf<Int>()
+
+    fun addWord(id: Int) {
+        // the words are sorted by id as well, so duplicates are always next to each other
+        if (words.isEmpty() || words.last() != id) {
+            words.add(id)
+        }
+    }
+}
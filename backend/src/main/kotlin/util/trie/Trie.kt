@@ -1,19 +1,196 @@
 package util.trie
 
+import util.mapReadOnly
 import java.nio.ByteBuffer
+import java.nio.file.Path
 
 /**
- * trie implementation based on a custom binary file format
+ * A trie of place names. Nodes are addressed by long handles, so a traversal with getChild, isWord and getWord doesn't
+ * allocate anything. getRoot wraps the handles into TrieNode objects where convenience matters more than speed.
+ * most implementations use the offset of a node as its handle, a DAWG needs the upper half for the rank of the word.
  */
-class Trie(bytes: ByteArray) {
-    private val buffer = ByteBuffer.wrap(bytes)
+interface Trie {
+    /**
+     * the handle of the root node
+     */
+    val rootNode: Long
+
+    /**
+     * returns the handle of the child of the node for the passed char or NO_NODE if there is no such child
+     */
+    fun getChild(node: Long, char: Char): Long
+
+    /**
+     * the number of children of the node. together with getChildChar and getChildAt the children of a node can be
+     * accessed by their index without allocating
+     */
+    fun getChildCount(node: Long): Int
+
+    fun getChildChar(node: Long, index: Int): Char
+
+    fun getChildAt(node: Long, index: Int): Long
+
+    /**
+     * the position of the first child of the node or NO_NODE if it has none. together with getNextChildPosition,
+     * getChildAtPosition and getChildCharAtPosition all children of a node are enumerated in constant time per child
+     * without allocating. the position is the index of the child unless an implementation can't access its children
+     * by index in constant time
+     */
+    fun getFirstChildPosition(node: Long): Long {
+        return if (getChildCount(node) == 0) NO_NODE else 0L
+    }
+
+    /**
+     * the position of the next child of the node or NO_NODE if the child at the passed position is its last one
+     */
+    fun getNextChildPosition(node: Long, position: Long): Long {
+        return if (position + 1 < getChildCount(node)) position + 1 else NO_NODE
+    }
+
+    fun getChildAtPosition(node: Long, position: Long): Long {
+        return getChildAt(node, position.toInt())
+    }
+
+    fun getChildCharAtPosition(node: Long, position: Long): Char {
+        return getChildChar(node, position.toInt())
+    }
+
+    fun isWord(node: Long): Boolean
+
+    /**
+     * returns the smallest place id of the node
+     */
+    fun getWord(node: Long): Int
+
+    /**
+     * resets the passed posting list to the place ids of the node
+     */
+    fun readWords(node: Long, postings: PostingList)
+
+    /**
+     * the number of bytes the trie occupies, either on the heap or memory mapped
+     */
+    val byteSize: Long
 
     fun getRoot(): TrieNode {
-        return TrieNode(buffer, 0)
+        return TrieNode(this, rootNode)
+    }
+
+    companion object {
+        val NO_NODE = -1L
+
+        /**
+         * maps an uncompressed trie file read-only into memory, see mapReadOnly
+         */
+        fun map(path: Path): Trie {
+            return load(mapReadOnly(path))
+        }
+
+        fun load(bytes: ByteArray): Trie {
+            return load(ByteBuffer.wrap(bytes))
+        }
+
+        /**
+         * creates the trie implementation matching the format of the passed buffer
+         */
+        fun load(buffer: ByteBuffer): Trie {
+            return when (TrieFormat.readFormat(buffer)) {
+                TrieFormat.LINKED -> LinkedTrie(buffer)
+                TrieFormat.INDEXED -> IndexedTrie(buffer)
+                TrieFormat.DOUBLE_ARRAY -> DoubleArrayTrie(buffer)
+                TrieFormat.DAWG -> DawgTrie(buffer)
+            }
+        }
     }
 }
 
-class TrieNode(private val buffer: ByteBuffer, private val offset: Int) {
+/**
+ * object wrapper around a node handle of a trie
+ */
+class TrieNode(private val trie: Trie, val node: Long) {
+
+    fun isWord(): Boolean {
+        return trie.isWord(node)
+    }
+
+    /**
+     * returns the smallest place id of this node
+     */
+    fun getWord(): Int {
+        return trie.getWord(node)
+    }
+
+    /**
+     * resets the passed posting list to the place ids of this node
+     */
+    fun readWords(postings: PostingList) {
+        trie.readWords(node, postings)
+    }
+
+    fun getChild(char: Char): TrieNode? {
+        val child = trie.getChild(node, char)
+        return if (child == Trie.NO_NODE) null else TrieNode(trie, child)
+    }
+}
+
+/**
+ * versions of the binary trie format. all formats except LINKED start with a header consisting of the magic number and
+ * the version. versions 2 and 3 stored only the first place id of every node and are not supported anymore.
+ */
+enum class TrieFormat(val version: Int) {
+    /**
+     * the children of a node are a linked list, every node stores the offset after its subtree to find its next sibling
+     */
+    LINKED(1),
+
+    /**
+     * every node stores its sorted child chars and a parallel table with the offsets of its children. the header
+     * contains the offset of the root node and of the posting list section, word nodes store the offset of their
+     * posting list in this section
+     */
+    INDEXED(4),
+
+    /**
+     * BASE, CHECK, posting list offset and child list offset arrays of a double-array trie followed by the child lists
+     * and the posting lists, see DoubleArrayTrie. version 5 had no child lists and is not supported anymore.
+     */
+    DOUBLE_ARRAY(7),
+
+    /**
+     * minimized trie whose nodes with the same subtree are stored only once. as a node can be reached by different
+     * words, the posting lists are kept in a table indexed by the rank of the word, see DawgTrie
+     */
+    DAWG(6);
+
+    companion object {
+        val MAGIC = 0x54524945 // "TRIE"
+        val VERSION_OFFSET = 4
+        val ROOT_OFFSET_OFFSET = 8
+        val POSTINGS_OFFSET_OFFSET = 12
+        val HEADER_SIZE = 16
+
+        /**
+         * LINKED files have no header, they start with the root node whose char is 0 and therefore never match the magic
+         */
+        fun readFormat(buffer: ByteBuffer): TrieFormat {
+            return if (buffer.capacity() >= VERSION_OFFSET + 4 && buffer.getInt(0) == MAGIC) {
+                fromVersion(buffer.getInt(VERSION_OFFSET))
+            } else {
+                LINKED
+            }
+        }
+
+        fun fromVersion(version: Int): TrieFormat {
+            return values().find { it.version == version }
+                ?: throw IllegalArgumentException("Unsupported trie format version $version")
+        }
+    }
+}
+
+/**
+ * trie implementation based on the LINKED binary file format, the handle of a node is its offset
+ */
+class LinkedTrie(private val buffer: ByteBuffer) : Trie {
 
     companion object {
         val CHAR_OFFSET = 0
@@ -23,39 +200,163 @@ class TrieNode(private val buffer: ByteBuffer, private val offset: Int) {
         val WORD_SIZE = 4
     }
 
-    private val cachedIsWord = readWordCount() != 0.toByte()
-    private val endOfMyChildrenIndex = buffer.getInt(offset + OFFSET_OFFSET)
-    private val childStartIndex = offset + WORD_START_OFFSET + if (isWord()) WORD_SIZE else 0
+    override val rootNode = 0L
+    override val byteSize = buffer.capacity().toLong()
 
-    fun isWord(): Boolean {
-        return cachedIsWord
+    override fun isWord(node: Long): Boolean {
+        return buffer.get(node.toInt() + WORD_COUNT_OFFSET) != 0.toByte()
     }
 
-    private fun readWordCount(): Byte {
-        return buffer.get(offset + WORD_COUNT_OFFSET)
+    override fun getWord(node: Long): Int {
+        return buffer.getInt(node.toInt() + WORD_START_OFFSET)
     }
 
-    fun getWord(): Int {
-        return buffer.getInt(offset + WORD_START_OFFSET)
-    }
-
-    fun getChild(char: Char): TrieNode? {
-        val childIndex = findChildIndex(char)
-        return if (childIndex == null) {
-            null
-        } else {
-            TrieNode(buffer, childIndex)
-        }
+    /**
+     * the linked format only contains the first place id of every node
+     */
+    override fun readWords(node: Long, postings: PostingList) {
+        postings.reset(getWord(node))
     }
 
-    private fun findChildIndex(char: Char): Int? {
-        var childIndex = childStartIndex
+    override fun getChild(node: Long, char: Char): Long {
+        val endOfMyChildrenIndex = buffer.getInt(node.toInt() + OFFSET_OFFSET)
+        var childIndex = node.toInt() + WORD_START_OFFSET + if (isWord(node)) WORD_SIZE else 0
         while (childIndex < endOfMyChildrenIndex) {
             if (buffer.getChar(childIndex + CHAR_OFFSET) == char) {
-                return childIndex
+                return childIndex.toLong()
             }
             childIndex = buffer.getInt(childIndex + OFFSET_OFFSET)
         }
-        return null
+        return Trie.NO_NODE
+    }
+
+    /**
+     * the children are a linked list, so the children are counted and reaching a child needs to walk its siblings.
+     * the positions used to enumerate the children are the children themselves, which avoids walking the siblings.
+     */
+    override fun getChildCount(node: Long): Int {
+        var count = 0
+        var child = firstChild(node)
+        while (child != Trie.NO_NODE) {
+            count++
+            child = nextSibling(node, child)
+        }
+        return count
+    }
+
+    override fun getChildChar(node: Long, index: Int): Char {
+        return buffer.getChar(getChildAt(node, index).toInt() + CHAR_OFFSET)
+    }
+
+    override fun getChildAt(node: Long, index: Int): Long {
+        var child = firstChild(node)
+        for (i in 0 until index) {
+            child = nextSibling(node, child)
+        }
+        return child
+    }
+
+    override fun getFirstChildPosition(node: Long): Long {
+        return firstChild(node)
+    }
+
+    override fun getNextChildPosition(node: Long, position: Long): Long {
+        return nextSibling(node, position)
+    }
+
+    override fun getChildAtPosition(node: Long, position: Long): Long {
+        return position
+    }
+
+    override fun getChildCharAtPosition(node: Long, position: Long): Char {
+        return buffer.getChar(position.toInt() + CHAR_OFFSET)
+    }
+
+    private fun firstChild(node: Long): Long {
+        val childIndex = node.toInt() + WORD_START_OFFSET + if (isWord(node)) WORD_SIZE else 0
+        return if (childIndex < buffer.getInt(node.toInt() + OFFSET_OFFSET)) childIndex.toLong() else Trie.NO_NODE
+    }
+
+    private fun nextSibling(node: Long, child: Long): Long {
+        val siblingIndex = buffer.getInt(child.toInt() + OFFSET_OFFSET)
+        return if (siblingIndex < buffer.getInt(node.toInt() + OFFSET_OFFSET)) siblingIndex.toLong() else Trie.NO_NODE
+    }
+}
+
+/**
+ * trie implementation based on the INDEXED binary file format, the handle of a node is its offset
+ */
+class IndexedTrie(private val buffer: ByteBuffer) : Trie {
+
+    companion object {
+        val WORD_COUNT_OFFSET = 0
+        val POSTING_OFFSET_OFFSET = 1
+        val POSTING_OFFSET_SIZE = 4
+        val CHILD_COUNT_SIZE = 2
+        val CHAR_SIZE = 2
+        val CHILD_OFFSET_SIZE = 4
+    }
+
+    override val rootNode = buffer.getInt(TrieFormat.ROOT_OFFSET_OFFSET).toLong()
+    override val byteSize = buffer.capacity().toLong()
+    private val postingsOffset = buffer.getInt(TrieFormat.POSTINGS_OFFSET_OFFSET)
+
+    override fun isWord(node: Long): Boolean {
+        return buffer.get(node.toInt() + WORD_COUNT_OFFSET) != 0.toByte()
+    }
+
+    override fun getWord(node: Long): Int {
+        return readFirstPosting(buffer, postingIndex(node))
+    }
+
+    override fun readWords(node: Long, postings: PostingList) {
+        postings.reset(buffer, postingIndex(node))
+    }
+
+    private fun postingIndex(node: Long): Int {
+        return postingsOffset + buffer.getInt(node.toInt() + POSTING_OFFSET_OFFSET)
+    }
+
+    override fun getChildCount(node: Long): Int {
+        return buffer.getShort(childCountIndex(node)).toInt() and 0xFFFF
+    }
+
+    /**
+     * returns the char of the child at the passed index, the children are sorted by their char
+     */
+    override fun getChildChar(node: Long, index: Int): Char {
+        return buffer.getChar(childCountIndex(node) + CHILD_COUNT_SIZE + index * CHAR_SIZE)
+    }
+
+    override fun getChildAt(node: Long, index: Int): Long {
+        val childCountIndex = childCountIndex(node)
+        val childCount = buffer.getShort(childCountIndex).toInt() and 0xFFFF
+        return buffer.getInt(childCountIndex + CHILD_COUNT_SIZE + childCount * CHAR_SIZE + index * CHILD_OFFSET_SIZE)
+            .toLong()
+    }
+
+    private fun childCountIndex(node: Long): Int {
+        return node.toInt() + POSTING_OFFSET_OFFSET + if (isWord(node)) POSTING_OFFSET_SIZE else 0
+    }
+
+    /**
+     * binary search in the sorted child chars, the offset of the child is at the same index in the child offset table
+     */
+    override fun getChild(node: Long, char: Char): Long {
+        val childCountIndex = childCountIndex(node)
+        val childCount = buffer.getShort(childCountIndex).toInt() and 0xFFFF
+        val charsIndex = childCountIndex + CHILD_COUNT_SIZE
+        var low = 0
+        var high = childCount - 1
+        while (low <= high) {
+            val mid = (low + high).ushr(1)
+            val midChar = buffer.getChar(charsIndex + mid * CHAR_SIZE)
+            when {
+                midChar < char -> low = mid + 1
+                midChar > char -> high = mid - 1
+                else -> return buffer.getInt(charsIndex + childCount * CHAR_SIZE + mid * CHILD_OFFSET_SIZE).toLong()
+            }
+        }
+        return Trie.NO_NODE
     }
-}
\ No newline at end of file
+}
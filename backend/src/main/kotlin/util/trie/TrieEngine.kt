@@ -0,0 +1,15 @@
+package util.trie
+
+/**
+ * the trie implementations a region can be served with, each of them is stored in its own file
+ */
+enum class TrieEngine(val id: String, val fileExtension: String) {
+    BINARY("binary", ".trie"),
+    DOUBLE_ARRAY("double_array", ".datrie"),
+    DAWG("dawg", ".dawg");
+
+    companion object {
+        private val map = values().associateBy(TrieEngine::id)
+        fun fromId(id: String?) = if (id == null) null else map[id]
+    }
+}
@@ -1,174 +1,281 @@
 package util.trie
 
-import org.apache.commons.text.similarity.LevenshteinDistance
+import util.LongIntHashMap
 import util.Match
 import util.Matcher
+import util.SearchBudget
 
 /**
  * Matcher which uses a Trie to do it's phonetic matching.
- * it does the fuzzy matching by substituting chars by looking them up in the FUZZY_GROUPS map
+ * it does the fuzzy matching by substituting chars by looking them up in the FUZZY_GROUPS map, which is compiled into
+ * automatons that are walked together with the trie. the score of a match is the sum of the costs of the substitutions
+ * taken on the way, see FuzzyRules.substitutionCost, if a place is reached multiple times the best score is kept.
+ * the trie nodes reached at a depth of the phrase are expanded depth by depth, so every node is expanded once per depth
+ * with its best score. with a beamWidth only the beamWidth best nodes of every depth are expanded, which keeps the work
+ * of a match independent of the length of the phrase, but may miss matches. the beam is local to a match, the
+ * PhraseSearch has its own beam for the matches it keeps.
  */
 class TrieMatcher(
     search: String,
     private val trie: Trie,
-    private val splitWords: Boolean = false
+    private val splitWords: Boolean = false,
+    private val budget: SearchBudget = SearchBudget(),
+    private val beamWidth: Int = Int.MAX_VALUE
 ) : Matcher {
 
     companion object {
-        val LEVENSHTEIN_DISTANCE = LevenshteinDistance()
-        val FUZZY_GROUPS = listOf(
-            setOf("z", "zz", "s", "ss", "ts", "zs"),
-            setOf("ou", "oe", "ue", "uo"),
-            setOf("qu", "k"),
-            setOf("ä", "ae", "e", "a"),
-            setOf("ü", "ue", "u"),
-            setOf("ö", "oe", "o"),
-            setOf("ch", "k", "g", "sch"),
-            setOf("sch", "sh", "s"),
-            ofPair("c", "z"),
-            ofPair("a", "e"),
-            ofPair("i", "y"),
-            ofPair("m", "n"),
-            ofPair("o", "u"),
-            ofPair("o", "a"),
-            ofPair("a", "e"),
-            ofPair("b", "p"),
-            ofPair("g", "k"),
-            ofPair("t", "d"),
-            ofPair("w", "v"),
-            ofPair("f", "v"),
-            ofPair("k", "q")
-        ).precalc()
+        /**
+         * groups of strings that sound alike with the cost of replacing one string of the group by another one
+         */
+        val FUZZY_GROUP_COSTS = listOf(
+            setOf("z", "zz", "s", "ss", "ts", "zs") to 1,
+            setOf("ou", "oe", "ue", "uo") to 1,
+            setOf("qu", "k") to 1,
+            setOf("ä", "ae", "e", "a") to 1,
+            setOf("ü", "ue", "u") to 1,
+            setOf("ö", "oe", "o") to 1,
+            setOf("ch", "k", "g", "sch") to 1,
+            setOf("sch", "sh", "s") to 1,
+            ofPair("c", "z") to 1,
+            ofPair("a", "e") to 1,
+            ofPair("i", "y") to 1,
+            ofPair("m", "n") to 1,
+            ofPair("o", "u") to 1,
+            ofPair("o", "a") to 1,
+            ofPair("a", "e") to 1,
+            ofPair("b", "p") to 1,
+            ofPair("g", "k") to 1,
+            ofPair("t", "d") to 1,
+            ofPair("w", "v") to 1,
+            ofPair("f", "v") to 1,
+            ofPair("k", "q") to 1
+        )
+        val FUZZY_GROUPS = FUZZY_GROUP_COSTS.map { it.first }.precalc()
+
+        private val FUZZY_RULES = FuzzyRules(FUZZY_GROUPS, FUZZY_GROUP_COSTS)
 
         private fun ofPair(s1: String, s2: String): Set<String> {
             return setOf(s1, s2, s1 + s1, s2 + s2, s1 + s2, s2 + s1)
         }
     }
 
-    private val wordBeginnings = mutableSetOf<Int>()
-    private val word = prepare(search)
+    private val phrase = PreparedPhrase(search)
+    private val word = phrase.word
+    private val wordBeginnings = phrase.wordBeginnings
+
+    /**
+     * the automaton of the strings to try in the trie for every depth of the phrase
+     */
+    private val fuzzyAutomatons = Array(word.length) { FUZZY_RULES.forPosition(word, it) }
 
-    private val currentTriePath = StringBuilder()
-    private var startDepth = 0
+    /**
+     * the cost of every accepting state of the automaton of a depth, for the three lengths of the phrase part it may
+     * stand for (one char less, the same length, one char more) at state * 3 + 0, 1 and 2
+     */
+    private val substitutionCosts = Array(word.length) { calculateSubstitutionCosts(it) }
+
+    /**
+     * the best score of every place and end depth, the key is the place id in the upper and the end depth in the
+     * lower half
+     */
+    private val bestScores = LongIntHashMap()
+
+    /**
+     * the best score every trie node was reached with at a depth during the current match. overlapping fuzzy groups
+     * reach the same node at the same depth in many ways, it is expanded once with the best score when its depth is
+     * expanded
+     */
+    private val reachedStates = Array(word.length + 1) { LongIntHashMap() }
+    private var deepestReachedDepth = 0
+    private var maxScore = Int.MAX_VALUE
+    private var stateScores = IntArray(16)
     private val results = mutableSetOf<Match>()
+    private val postings = PostingList()
+
+    /**
+     * false expands every way a node is reached on its own instead of once with its best score, only used to test
+     * that the best scores are the same
+     */
+    internal var memoize = true
+
+    init {
+        if (beamWidth < 1) {
+            throw IllegalArgumentException("The beam width has to be positive")
+        }
+    }
 
     override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+        return match(depth, Int.MAX_VALUE)
+    }
+
+    /**
+     * the substitution costs are not negative, so the nodes reached with a higher score than maxScore are not expanded.
+     * the walk through the trie reuses its state, only the returned matches are allocated
+     */
+    override fun match(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
         if (depth == word.length) {
             return Pair(true, emptySet())
         }
-        startDepth = depth
+        this.maxScore = maxScore
+        bestScores.clear()
         results.clear()
-        recursiveSearch(depth, trie.getRoot())
+        deepestReachedDepth = depth
+        reach(depth, trie.rootNode, 0)
+        var expandedDepth = depth
+        while (expandedDepth <= deepestReachedDepth && expandDepth(expandedDepth)) {
+            expandedDepth++
+        }
+        // only the depths reached during this match are cleared, so a match doesn't cost the length of the phrase
+        for (reachedDepth in depth..deepestReachedDepth) {
+            reachedStates[reachedDepth].clear()
+        }
+        for (slot in 0 until bestScores.getCapacity()) {
+            if (bestScores.isUsed(slot)) {
+                val key = bestScores.getKey(slot)
+                results.add(Match(key.ushr(32).toInt(), key.toInt(), bestScores.getValue(slot)))
+            }
+        }
         return Pair(false, results)
     }
 
-    private fun recursiveSearch(depth: Int, node: TrieNode) {
-        if (depth >= word.length) {
-            if (depth == word.length && node.isWord()) {
-                results.add(matched(node, depth))
-            }
+    private fun reach(depth: Int, node: Long, score: Int) {
+        if (depth > word.length || score > maxScore) {
             return
         }
-        if (isAcceptableWordSplit(depth) && node.isWord()) {
-            results.add(matched(node, depth))
+        if (!memoize) {
+            if (budget.expand()) {
+                expand(depth, node, score)
+            }
+            return
         }
-        val nextNodes = collectNextNodes(depth, node)
-        for (nextNode in nextNodes) {
-            currentTriePath.append(nextNode.third)
-            recursiveSearch(nextNode.first, nextNode.second)
-            currentTriePath.setLength(currentTriePath.length - nextNode.third.length)
+        if (reachedStates[depth].putIfSmaller(node, score) && depth > deepestReachedDepth) {
+            deepestReachedDepth = depth
         }
     }
 
-    private fun matched(node: TrieNode, endDepth: Int): Match {
-        return Match(
-            node.getWord(),
-            endDepth,
-            score(currentTriePath.toString(), word.substring(startDepth, endDepth))
-        )
+    /**
+     * expands the nodes reached at the depth, or only the beamWidth best of them. returns false if the budget is exhausted
+     */
+    private fun expandDepth(depth: Int): Boolean {
+        val states = reachedStates[depth]
+        if (states.size == 0) {
+            return true
+        }
+        // the beam takes all states better than the beamWidth best one and fills up with the ones of its score
+        var worstScore = Int.MAX_VALUE
+        var worstScoreCount = Int.MAX_VALUE
+        if (states.size > beamWidth) {
+            sortStateScores(states)
+            worstScore = stateScores[beamWidth - 1]
+            var firstWorstScore = beamWidth - 1
+            while (firstWorstScore > 0 && stateScores[firstWorstScore - 1] == worstScore) {
+                firstWorstScore--
+            }
+            worstScoreCount = beamWidth - firstWorstScore
+        }
+        for (slot in 0 until states.getCapacity()) {
+            if (!states.isUsed(slot)) {
+                continue
+            }
+            val score = states.getValue(slot)
+            if (score > worstScore || (score == worstScore && worstScoreCount-- <= 0)) {
+                continue
+            }
+            if (!budget.expand()) {
+                return false
+            }
+            expand(depth, states.getKey(slot), score)
+        }
+        return true
     }
 
-    private fun score(matchedWord: String, matchedPhrase: String): Int {
-        return LEVENSHTEIN_DISTANCE.apply(matchedWord, matchedPhrase)
+    override fun isEnd(depth: Int): Boolean {
+        return depth == word.length
     }
 
-    private fun isAcceptableWordSplit(depth: Int): Boolean {
-        return splitWords || wordBeginnings.contains(depth)
+    private fun sortStateScores(states: LongIntHashMap) {
+        if (stateScores.size < states.size) {
+            stateScores = IntArray(states.size * 2)
+        }
+        var count = 0
+        for (slot in 0 until states.getCapacity()) {
+            if (states.isUsed(slot)) {
+                stateScores[count++] = states.getValue(slot)
+            }
+        }
+        stateScores.sort(0, count)
     }
 
-    private fun collectNextNodes(depth: Int, node: TrieNode): List<Triple<Int, TrieNode, String>> {
-        val nextChars = mutableListOf<String>()
-        if (depth + 1 <= word.length) nextChars.add(word.substring(depth, depth + 1))
-        if (depth + 2 <= word.length) nextChars.add(word.substring(depth, depth + 2))
-        if (nextChars.isEmpty()) {
-            return emptyList()
-        }
-
-        val nextNodes = mutableListOf<Triple<Int, TrieNode, String>>()
-        var found = false
-        nextChars.forEach { nextChar ->
-            val fuzzyMatches = FUZZY_GROUPS[nextChar]
-            if (fuzzyMatches != null) {
-                found = true
-                //TODO the heck, we are faster if we do stuff multiple times instead of deduplicating it with an hashset
-                fuzzyMatches.forEach {
-                    tryFuzzyString(it, depth, node, nextNodes)
-                }
+    private fun expand(depth: Int, node: Long, score: Int) {
+        if (depth == word.length) {
+            if (trie.isWord(node)) {
+                matched(node, depth, score)
             }
+            return
         }
+        if (isAcceptableWordSplit(depth) && trie.isWord(node)) {
+            matched(node, depth, score)
+        }
+        walkFuzzyAutomaton(fuzzyAutomatons[depth], 0, 0, depth, node, score)
+    }
 
-        if (!found) {
-            val nextChar = word.substring(depth, depth + 1)
-            tryFuzzyString(nextChar, depth, node, nextNodes)
-            tryFuzzyString(nextChar + nextChar, depth, node, nextNodes)
+    /**
+     * keeps the score for every place of the node if it is the best one for the place and end depth so far
+     */
+    private fun matched(node: Long, endDepth: Int, score: Int) {
+        trie.readWords(node, postings)
+        while (postings.hasNext()) {
+            bestScores.putIfSmaller(postings.next().toLong().shl(32) or endDepth.toLong(), score)
         }
+    }
 
-        return nextNodes
+    private fun calculateSubstitutionCosts(depth: Int): IntArray {
+        val automaton = fuzzyAutomatons[depth]
+        val costs = IntArray(automaton.accepting.size * 3)
+        automaton.acceptedStrings.forEachIndexed { state, replacement ->
+            if (replacement != null) {
+                for (lengthDifference in -1..1) {
+                    val end = depth + replacement.length + lengthDifference
+                    if (end <= word.length) {
+                        costs[state * 3 + lengthDifference + 1] =
+                            FUZZY_RULES.substitutionCost(replacement, word.substring(depth, end))
+                    }
+                }
+            }
+        }
+        return costs
+    }
+
+    private fun isAcceptableWordSplit(depth: Int): Boolean {
+        return splitWords || wordBeginnings[depth]
     }
 
-    private fun tryFuzzyString(
-        fuzzyMatchToTry: String,
+    /**
+     * walks the automaton and the trie together. whenever the automaton accepts, the search continues from the reached
+     * node, which may stand for one char less or more of the phrase than the accepted string has
+     */
+    private fun walkFuzzyAutomaton(
+        automaton: FuzzyAutomaton,
+        state: Int,
+        length: Int,
         depth: Int,
-        node: TrieNode,
-        nextNodes: MutableList<Triple<Int, TrieNode, String>>
+        node: Long,
+        score: Int
     ) {
-        var valid = true
-        var currentNode = node
-        for (char in fuzzyMatchToTry) {
-            val child = currentNode.getChild(char)
-            if (child != null) {
-                currentNode = child
-            } else {
-                valid = false
-                break
+        if (automaton.accepting[state]) {
+            val costs = substitutionCosts[depth]
+            if (length > 1) {
+                reach(depth + length - 1, node, score + costs[state * 3])
             }
+            reach(depth + length, node, score + costs[state * 3 + 1])
+            reach(depth + length + 1, node, score + costs[state * 3 + 2])
         }
-        if (valid) {
-            if (fuzzyMatchToTry.length > 1) {
-                nextNodes.add(Triple(depth + fuzzyMatchToTry.length - 1, currentNode, fuzzyMatchToTry))
-            }
-            nextNodes.add(Triple(depth + fuzzyMatchToTry.length, currentNode, fuzzyMatchToTry))
-            nextNodes.add(Triple(depth + fuzzyMatchToTry.length + 1, currentNode, fuzzyMatchToTry))
-        }
-    }
-
-    private fun prepare(search: String): String {
-        val word = StringBuilder()
-        var i = 0
-        var lastChar: Char? = null
-        for (char in search) {
-            val lowerChar = char.toLowerCase()
-            if (lowerChar.isLetter()) {//TODO numbers and stuff?
-                word.append(lowerChar)
-                i++
-            } else {
-                if (lowerChar.isWhitespace() && !(lastChar == null || lastChar.isWhitespace())) {
-                    wordBeginnings.add(i)
-                }
+        for (transition in automaton.firstTransition[state] until automaton.firstTransition[state + 1]) {
+            val child = trie.getChild(node, automaton.transitionChars[transition])
+            if (child != Trie.NO_NODE) {
+                walkFuzzyAutomaton(automaton, automaton.transitionTargets[transition], length + 1, depth, child, score)
             }
-            lastChar = lowerChar
         }
-        return word.toString()
     }
 }
 
@@ -1,12 +1,16 @@
+import com.amazonaws.services.lambda.runtime.Context
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent
 import exception.BadRequestException
 import exception.NotFoundException
+import exception.SearchBudgetExceededException
 import io.mockk.every
 import io.mockk.impl.annotations.MockK
 import io.mockk.impl.annotations.OverrideMockKs
 import io.mockk.junit5.MockKExtension
 import io.mockk.mockk
 import model.Place
+import model.Route
+import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
@@ -32,34 +36,54 @@ internal class MapPhraseToRouteRequestHandlerTest {
     private val badRequestPhrase = "bad request"
     private val notFoundPhrase = "not found"
     private val internalErrorPhrase = "internal error"
+    private val partialPhrase = "partial"
+    private val budgetExceededPhrase = "budget exceeded"
+
+    private val context = mockk<Context>(relaxed = true)
 
     @BeforeEach
     fun setUp() {
-        every { routeService.mapPhraseToRoute(validPhrase, false, Region.US) } returns listOf(
-            Place(1, "place 1", 1.0, 2.0),
-            Place(2, "place 2", 1.0, 2.0),
-            Place(3, "place 3", 1.0, 2.0)
+        every { routeService.mapPhraseToRoute(validPhrase, false, Region.US, any()) } returns Route(
+            listOf(
+                Place(1, "place 1", 1.0, 2.0),
+                Place(2, "place 2", 1.0, 2.0),
+                Place(3, "place 3", 1.0, 2.0)
+            ), false
+        )
+
+        every { routeService.mapPhraseToRoute(partialPhrase, false, Region.US, any()) } returns Route(
+            listOf(Place(1, "place 1", 1.0, 2.0)), true
         )
 
         every {
-            routeService.mapPhraseToRoute(emptyResultPhrase, false, Region.US)
+            routeService.mapPhraseToRoute(budgetExceededPhrase, false, Region.US, any())
+        } throws SearchBudgetExceededException(budgetExceededPhrase)
+
+        every {
+            routeService.mapPhraseToRoute(emptyResultPhrase, false, Region.US, any())
         } throws NotFoundException(emptyResultPhrase)
 
         every {
-            routeService.mapPhraseToRoute(badRequestPhrase, false, Region.US)
+            routeService.mapPhraseToRoute(badRequestPhrase, false, Region.US, any())
         } throws BadRequestException(badRequestPhrase)
 
-        every { routeService.mapPhraseToRoute(notFoundPhrase, false, Region.US) } throws NotFoundException(
+        every { routeService.mapPhraseToRoute(notFoundPhrase, false, Region.US, any()) } throws NotFoundException(
             notFoundPhrase
         )
 
         every {
-            routeService.mapPhraseToRoute(internalErrorPhrase, false, Region.US)
+            routeService.mapPhraseToRoute(internalErrorPhrase, false, Region.US, any())
         } throws IndexOutOfBoundsException()
 
         every {
             apiGatewayProxyRequestEvent.queryStringParameters?.getOrDefault("region", null)
         } returns null
+
+        every {
+            apiGatewayProxyRequestEvent.queryStringParameters?.getOrDefault("phonetic_first", "false")
+        } returns "false"
+
+        every { context.remainingTimeInMillis } returns 30_000
     }
 
     @Test
@@ -70,7 +94,7 @@ internal class MapPhraseToRouteRequestHandlerTest {
 
         assertTrue(
             mapPhraseToRouteRequestHandler
-                .handleRequest(apiGatewayProxyRequestEvent, mockk()).statusCode == HttpURLConnection.HTTP_OK
+                .handleRequest(apiGatewayProxyRequestEvent, context).statusCode == HttpURLConnection.HTTP_OK
         )
     }
 
@@ -82,7 +106,7 @@ internal class MapPhraseToRouteRequestHandlerTest {
 
         assertTrue(
             mapPhraseToRouteRequestHandler
-                .handleRequest(apiGatewayProxyRequestEvent, mockk()).statusCode == HttpURLConnection.HTTP_NOT_FOUND
+                .handleRequest(apiGatewayProxyRequestEvent, context).statusCode == HttpURLConnection.HTTP_NOT_FOUND
         )
     }
 
@@ -94,7 +118,7 @@ internal class MapPhraseToRouteRequestHandlerTest {
 
         assertTrue(
             mapPhraseToRouteRequestHandler
-                .handleRequest(apiGatewayProxyRequestEvent, mockk()).statusCode == HttpURLConnection.HTTP_BAD_REQUEST
+                .handleRequest(apiGatewayProxyRequestEvent, context).statusCode == HttpURLConnection.HTTP_BAD_REQUEST
         )
 
         every {
@@ -102,7 +126,38 @@ internal class MapPhraseToRouteRequestHandlerTest {
         } returns notFoundPhrase
         assertTrue(
             mapPhraseToRouteRequestHandler
-                .handleRequest(apiGatewayProxyRequestEvent, mockk()).statusCode == HttpURLConnection.HTTP_NOT_FOUND
+                .handleRequest(apiGatewayProxyRequestEvent, context).statusCode == HttpURLConnection.HTTP_NOT_FOUND
+        )
+    }
+
+    @Test
+    fun `handleRequest() marks partial routes`() {
+        every {
+            apiGatewayProxyRequestEvent.queryStringParameters?.getOrDefault("phrase", null)
+        } returns partialPhrase
+
+        val response = mapPhraseToRouteRequestHandler.handleRequest(apiGatewayProxyRequestEvent, context)
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode)
+        assertEquals("true", response.headers["X-Partial-Route"])
+
+        every {
+            apiGatewayProxyRequestEvent.queryStringParameters?.getOrDefault("phrase", null)
+        } returns validPhrase
+        assertEquals(
+            "false",
+            mapPhraseToRouteRequestHandler.handleRequest(apiGatewayProxyRequestEvent, context).headers["X-Partial-Route"]
+        )
+    }
+
+    @Test
+    fun `handleRequest() returns 503 when the search budget is exceeded without a route`() {
+        every {
+            apiGatewayProxyRequestEvent.queryStringParameters?.getOrDefault("phrase", null)
+        } returns budgetExceededPhrase
+
+        assertEquals(
+            HttpURLConnection.HTTP_UNAVAILABLE,
+            mapPhraseToRouteRequestHandler.handleRequest(apiGatewayProxyRequestEvent, context).statusCode
         )
     }
 
@@ -114,7 +169,7 @@ internal class MapPhraseToRouteRequestHandlerTest {
 
         assertTrue(
             mapPhraseToRouteRequestHandler
-                .handleRequest(apiGatewayProxyRequestEvent, mockk()).statusCode == HttpURLConnection.HTTP_INTERNAL_ERROR
+                .handleRequest(apiGatewayProxyRequestEvent, context).statusCode == HttpURLConnection.HTTP_INTERNAL_ERROR
         )
     }
 }
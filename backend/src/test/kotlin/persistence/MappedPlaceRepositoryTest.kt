@@ -0,0 +1,46 @@
+package persistence
+
+import model.Place
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import util.InMemoryPlaceRepository
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+internal class MappedPlaceRepositoryTest {
+
+    private val places = listOf(
+        Place(42, "Zürich", 47.37, 8.54),
+        Place(7, "Wiener Neustadt", 47.81, 16.25),
+        Place(1000000, "Truth or Consequences", 33.13, -107.25)
+    )
+
+    @Test
+    fun `test find all for ids`() {
+        val result = createRepository().findAllForIds(setOf(7, 42, 1000000))
+
+        Assertions.assertEquals(places.associateBy { it.id }, result)
+    }
+
+    @Test
+    fun `test unknown ids are ignored`() {
+        val result = createRepository().findAllForIds(setOf(7, 8, 0))
+
+        Assertions.assertEquals(mapOf(7L to places[1]), result)
+    }
+
+    @Test
+    fun `test empty place table`() {
+        val out = ByteArrayOutputStream()
+        savePlaceTable(out, emptyList())
+        val repository = MappedPlaceRepository(PlaceTable(ByteBuffer.wrap(out.toByteArray())), InMemoryPlaceRepository())
+
+        Assertions.assertEquals(emptyMap<Long, Place>(), repository.findAllForIds(setOf(1)))
+    }
+
+    private fun createRepository(): PlaceRepository {
+        val out = ByteArrayOutputStream()
+        savePlaceTable(out, places)
+        return MappedPlaceRepository(PlaceTable(ByteBuffer.wrap(out.toByteArray())), InMemoryPlaceRepository())
+    }
+}
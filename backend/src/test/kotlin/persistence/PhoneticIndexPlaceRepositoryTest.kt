@@ -0,0 +1,88 @@
+package persistence
+
+import model.Place
+import org.apache.commons.codec.language.Nysiis
+import org.apache.commons.codec.language.Soundex
+import org.apache.commons.codec.language.bm.BeiderMorseEncoder
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import util.InMemoryPlaceRepository
+import util.PhoneticMatcher
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+internal class PhoneticIndexPlaceRepositoryTest {
+
+    private val names = listOf(
+        "Vienna", "Wien", "Zurich", "Salzburg", "Saltsburg", "Boston", "Austin", "Houston", "Truth or Consequences",
+        "Mountain", "Moontain", "Mountain View", "Linz", "Lins", "Graz", "Grass", "Hallstatt", "Berlin", "Bern"
+    )
+    private val inMemoryRepository = InMemoryPlaceRepository()
+    private val places = names.mapIndexed { i, name ->
+        inMemoryRepository.addPlace(i * 3, name)
+        Place(i * 3L, name, 0.0, 0.0)
+    }
+    private val repository = createRepository()
+
+    @Test
+    fun `test codes find the same places as the encoded place tables`() {
+        val nysiis = Nysiis()
+        val beiderMorse = BeiderMorseEncoder()
+        val soundex = Soundex()
+        for (word in names + listOf("Viena", "Mauntain", "Hjuston", "Unknown")) {
+            Assertions.assertEquals(
+                inMemoryRepository.findAllWhereNysiisCodeMatches(nysiis.encode(word)),
+                repository.findAllWhereNysiisCodeMatches(nysiis.encode(word)),
+                word
+            )
+            val beiderMorseCodes = beiderMorse.encode(word).split("|")
+            Assertions.assertEquals(
+                inMemoryRepository.findAllWhereBeiderMorseCodeMatches(beiderMorseCodes).toSet(),
+                repository.findAllWhereBeiderMorseCodeMatches(beiderMorseCodes).toSet(),
+                word
+            )
+            Assertions.assertEquals(
+                inMemoryRepository.findAllWhereSoundexCodeMatches(soundex.encode(word)),
+                repository.findAllWhereSoundexCodeMatches(soundex.encode(word)),
+                word
+            )
+        }
+    }
+
+    @Test
+    fun `test phonetic matcher finds the same matches`() {
+        for (phrase in listOf("mauntain view", "viena and bern", "salts burg linz")) {
+            for (depth in 0 until phrase.split(" ").size) {
+                Assertions.assertEquals(
+                    PhoneticMatcher(phrase, inMemoryRepository).match(depth),
+                    PhoneticMatcher(phrase, repository).match(depth),
+                    phrase
+                )
+            }
+        }
+    }
+
+    @Test
+    fun `test empty phonetic index`() {
+        val out = ByteArrayOutputStream()
+        savePhoneticIndex(out, emptyList())
+        val phoneticIndex = PhoneticIndex(ByteBuffer.wrap(out.toByteArray()))
+
+        for (phoneticCode in PhoneticCode.values()) {
+            Assertions.assertEquals(0, phoneticIndex.findIds(phoneticCode, "ABC").size)
+        }
+    }
+
+    private fun createRepository(): PlaceRepository {
+        val placeTableOut = ByteArrayOutputStream()
+        savePlaceTable(placeTableOut, places)
+        val phoneticIndexOut = ByteArrayOutputStream()
+        savePhoneticIndex(phoneticIndexOut, places)
+        val placeTable = PlaceTable(ByteBuffer.wrap(placeTableOut.toByteArray()))
+        return PhoneticIndexPlaceRepository(
+            PhoneticIndex(ByteBuffer.wrap(phoneticIndexOut.toByteArray())),
+            placeTable,
+            MappedPlaceRepository(placeTable, inMemoryRepository)
+        )
+    }
+}
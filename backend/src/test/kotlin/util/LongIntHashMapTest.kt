@@ -0,0 +1,62 @@
+package util
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+internal class LongIntHashMapTest {
+
+    @Test
+    fun `test put and get`() {
+        val map = LongIntHashMap()
+        map.put(1L shl 32 or 5L, 3)
+        map.put(7L, 1)
+        map.put(7L, 2)
+
+        Assertions.assertEquals(2, map.size)
+        Assertions.assertEquals(3, map.get(1L shl 32 or 5L, -1))
+        Assertions.assertEquals(2, map.get(7L, -1))
+        Assertions.assertEquals(-1, map.get(5L, -1))
+        Assertions.assertFalse(map.containsKey(5L))
+    }
+
+    @Test
+    fun `test put if smaller keeps the smallest value`() {
+        val map = LongIntHashMap()
+
+        Assertions.assertTrue(map.putIfSmaller(1L, 5))
+        Assertions.assertFalse(map.putIfSmaller(1L, 6))
+        Assertions.assertFalse(map.putIfSmaller(1L, 5))
+        Assertions.assertTrue(map.putIfSmaller(1L, 2))
+        Assertions.assertEquals(2, map.get(1L, -1))
+    }
+
+    @Test
+    fun `test growing and iterating slots`() {
+        val map = LongIntHashMap(2)
+        for (i in 0 until 1000) {
+            map.put(i.toLong() * 31, i)
+        }
+
+        val entries = mutableMapOf<Long, Int>()
+        for (slot in 0 until map.getCapacity()) {
+            if (map.isUsed(slot)) {
+                entries[map.getKey(slot)] = map.getValue(slot)
+            }
+        }
+        Assertions.assertEquals((0 until 1000).associate { it.toLong() * 31 to it }, entries)
+    }
+
+    @Test
+    fun `test clear keeps capacity`() {
+        val map = LongIntHashMap()
+        for (i in 0 until 100) {
+            map.put(i.toLong(), i)
+        }
+        val capacity = map.getCapacity()
+        map.clear()
+
+        Assertions.assertEquals(0, map.size)
+        Assertions.assertEquals(capacity, map.getCapacity())
+        Assertions.assertFalse(map.containsKey(1L))
+    }
+}
@@ -0,0 +1,32 @@
+package util
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.Random
+
+internal class LongMinHeapTest {
+
+    @Test
+    fun `test poll returns elements in ascending order`() {
+        val random = Random(3)
+        val elements = List(1000) { random.nextLong() }
+        val heap = LongMinHeap(2)
+        elements.forEach { heap.add(it) }
+
+        val polled = mutableListOf<Long>()
+        while (heap.isNotEmpty()) {
+            polled.add(heap.poll())
+        }
+        Assertions.assertEquals(elements.sorted(), polled)
+    }
+
+    @Test
+    fun `test poll of empty heap throws`() {
+        val heap = LongMinHeap()
+        heap.add(1L)
+        heap.clear()
+
+        Assertions.assertTrue(heap.isEmpty())
+        Assertions.assertThrows(NoSuchElementException::class.java) { heap.poll() }
+    }
+}
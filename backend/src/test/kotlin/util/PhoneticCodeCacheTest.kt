@@ -0,0 +1,72 @@
+package util
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+internal class PhoneticCodeCacheTest {
+
+    @Test
+    fun `test codes are encoded once`() {
+        val cache = PhoneticCodeCache(10)
+
+        val codes = cache.get("mountain")
+        Assertions.assertEquals(PhoneticCodeCache.encode("mountain"), codes)
+        Assertions.assertSame(codes, cache.get("mountain"))
+        Assertions.assertEquals(1, cache.hits)
+        Assertions.assertEquals(1, cache.misses)
+    }
+
+    @Test
+    fun `test least recently used words are evicted`() {
+        val cache = PhoneticCodeCache(2)
+        cache.get("boston")
+        cache.get("austin")
+        cache.get("boston")
+        cache.get("salem")
+
+        Assertions.assertEquals(2, cache.size)
+        cache.get("boston")
+        Assertions.assertEquals(2, cache.hits)
+        cache.get("austin")
+        Assertions.assertEquals(4, cache.misses)
+    }
+
+    @Test
+    fun `test preloaded words are hits`() {
+        val cache = PhoneticCodeCache(10)
+        cache.preload(sequenceOf("# comment", "the", "", " and "))
+
+        Assertions.assertEquals(2, cache.size)
+        cache.get("the")
+        cache.get("and")
+        Assertions.assertEquals(2, cache.hits)
+        Assertions.assertEquals(0, cache.misses)
+    }
+
+    @Test
+    fun `test words are looked up regardless of their case`() {
+        val encodedWords = mutableListOf<String>()
+        val cache = PhoneticCodeCache(10) {
+            encodedWords.add(it)
+            PhoneticCodeCache.encode(it)
+        }
+        cache.preload(sequenceOf("the", "I"))
+        encodedWords.clear()
+
+        Assertions.assertEquals(PhoneticCodeCache.encode("the"), cache.get("The"))
+        cache.get("i")
+        Assertions.assertEquals(emptyList<String>(), encodedWords)
+        Assertions.assertEquals(2, cache.hits)
+        Assertions.assertEquals(0, cache.misses)
+    }
+
+    @Test
+    fun `test soundex is null if the word can't be mapped`() {
+        Assertions.assertNull(PhoneticCodeCache.encode("zürich").soundex)
+    }
+
+    @Test
+    fun `test shared cache is preloaded with common words`() {
+        Assertions.assertTrue(PhoneticCodeCache.SHARED.size > 100)
+    }
+}
@@ -1,6 +1,7 @@
 package util
 
 import model.Place
+import model.PlaceName
 import org.apache.commons.codec.language.Nysiis
 import org.apache.commons.codec.language.Soundex
 import org.apache.commons.codec.language.bm.BeiderMorseEncoder
@@ -113,6 +114,38 @@ internal class PhoneticMatcherTest {
         )
     }
 
+    @Test
+    fun `test phrase is looked up with one query per encoder`() {
+        val placeRepository = InMemoryPlaceRepository()
+        listOf("mountain", "view", "boston", "salem").forEachIndexed { id, word -> placeRepository.addPlace(id, word) }
+        val countingRepository = CountingPlaceRepository(placeRepository)
+        val phrase = "mountain view is near boston and salem but far from the sea"
+
+        val matcher = PhoneticMatcher(phrase, countingRepository)
+        val words = PhoneticMatcher.splitWords(phrase)
+        for (depth in words.indices) {
+            Assertions.assertEquals(PhoneticMatcher(phrase, placeRepository).match(depth), matcher.match(depth))
+        }
+
+        Assertions.assertEquals(1, countingRepository.nysiisQueries)
+        Assertions.assertEquals(1, countingRepository.beiderMorseQueries)
+        Assertions.assertTrue(countingRepository.soundexQueries <= 1)
+    }
+
+    @Test
+    fun `test intersect and union of places ordered by id`() {
+        val first = listOf(PlaceName(1, "a"), PlaceName(3, "c"), PlaceName(4, "d"))
+        val second = listOf(PlaceName(2, "b"), PlaceName(3, "c"), PlaceName(5, "e"))
+
+        Assertions.assertEquals(listOf(PlaceName(3, "c")), PhoneticMatcher.intersectSortedById(first, second))
+        Assertions.assertEquals(
+            (1L..5L).map { PlaceName(it, ('a' + (it - 1).toInt()).toString()) },
+            PhoneticMatcher.unionSortedById(first, second)
+        )
+        Assertions.assertEquals(first, PhoneticMatcher.unionSortedById(first, emptyList()))
+        Assertions.assertEquals(emptyList<PlaceName>(), PhoneticMatcher.intersectSortedById(emptyList(), second))
+    }
+
     private fun test(
         depth: Int,
         search: String,
@@ -131,6 +164,45 @@ internal class PhoneticMatcherTest {
 
 }
 
+/**
+ * counts the queries of every encoder, the single code queries are counted as well, as they need a query each
+ */
+class CountingPlaceRepository(private val delegate: PlaceRepository) : PlaceRepository by delegate {
+    var nysiisQueries = 0
+    var beiderMorseQueries = 0
+    var soundexQueries = 0
+
+    override fun findAllWhereNysiisCodeMatches(nysiisCode: String): List<Place> {
+        nysiisQueries++
+        return delegate.findAllWhereNysiisCodeMatches(nysiisCode)
+    }
+
+    override fun findAllWhereBeiderMorseCodeMatches(beiderMorseCodes: List<String>): List<Place> {
+        beiderMorseQueries++
+        return delegate.findAllWhereBeiderMorseCodeMatches(beiderMorseCodes)
+    }
+
+    override fun findAllWhereSoundexCodeMatches(soundexCode: String): List<Place> {
+        soundexQueries++
+        return delegate.findAllWhereSoundexCodeMatches(soundexCode)
+    }
+
+    override fun findAllWhereNysiisCodesMatch(nysiisCodes: Collection<String>): Map<String, List<PlaceName>> {
+        nysiisQueries++
+        return delegate.findAllWhereNysiisCodesMatch(nysiisCodes)
+    }
+
+    override fun findAllWhereBeiderMorseCodesMatch(beiderMorseCodes: Collection<String>): Map<String, List<PlaceName>> {
+        beiderMorseQueries++
+        return delegate.findAllWhereBeiderMorseCodesMatch(beiderMorseCodes)
+    }
+
+    override fun findAllWhereSoundexCodesMatch(soundexCodes: Collection<String>): Map<String, List<PlaceName>> {
+        soundexQueries++
+        return delegate.findAllWhereSoundexCodesMatch(soundexCodes)
+    }
+}
+
 class InMemoryPlaceRepository : PlaceRepository {
 
     companion object {
@@ -163,8 +235,8 @@ class InMemoryPlaceRepository : PlaceRepository {
         return allPlaces.filter { allPlaceIds.contains(it.id) }.associateBy { it.id }
     }
 
-    override fun findAll(): List<Place> {
-        return allPlaces
+    override fun forEachPlace(fetchSize: Int, action: (Place) -> Unit) {
+        allPlaces.sortedBy { it.id }.forEach(action)
     }
 
     fun addPlace(id: Int, word: String) {
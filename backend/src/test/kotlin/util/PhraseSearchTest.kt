@@ -2,8 +2,10 @@ package util
 
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.verify
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import java.util.Random
 
 internal class PhraseSearchTest {
 
@@ -121,6 +123,145 @@ internal class PhraseSearchTest {
         ), emptyList())
     }
 
+    @Test
+    fun `test search with exhausted budget is partial`() {
+        val budget = SearchBudget(maxExpansions = 0)
+        val matcher = newMatcher()
+        // the matcher is stopped by the budget while matching the first depth
+        every { matcher.match(0) } answers { budget.expand(); Pair(false, setOf(Match(1, 1, 1))) }
+        matcher.result(1, true, emptySet())
+
+        val phraseSearch = PhraseSearch(matcher, budget = budget)
+
+        Assertions.assertEquals(listOf(listOf(1)), phraseSearch.search())
+        Assertions.assertTrue(phraseSearch.isPartial)
+    }
+
+    @Test
+    fun `test search that was not stopped by the exhausted budget is not partial`() {
+        val matcher = newMatcher()
+        matcher.result(0, false, setOf(Match(1, 1, 1)))
+        matcher.result(1, true, emptySet())
+
+        val phraseSearch = PhraseSearch(matcher, budget = SearchBudget(timeoutMillis = 0))
+
+        Assertions.assertEquals(listOf(listOf(1)), phraseSearch.search())
+        Assertions.assertFalse(phraseSearch.isPartial)
+    }
+
+    @Test
+    fun `test search within budget is not partial`() {
+        val matcher = newMatcher()
+        matcher.result(0, false, setOf(Match(1, 1, 1)))
+        matcher.result(1, true, emptySet())
+
+        val phraseSearch = PhraseSearch(matcher)
+
+        Assertions.assertEquals(listOf(listOf(1)), phraseSearch.search())
+        Assertions.assertFalse(phraseSearch.isPartial)
+    }
+
+    @Test
+    fun `test many matches per depth deliver the best routes`() {
+        val random = Random(7)
+        val scores = mutableMapOf<Int, Int>()
+        val matcher = newMatcher()
+        for (depth in 0 until 3) {
+            val matches = (0 until 40).map {
+                val wordId = depth * 1000 + it
+                scores[wordId] = random.nextInt(20)
+                Match(wordId, depth + 1, scores.getValue(wordId))
+            }
+            matcher.result(depth, false, matches.toSet())
+        }
+        matcher.result(3, true, emptySet())
+
+        val result = PhraseSearch(matcher).search()
+
+        val expectedDistances = mutableListOf<Int>()
+        for (a in 0 until 40) for (b in 1000 until 1040) for (c in 2000 until 2040) {
+            expectedDistances.add(scores.getValue(a) + scores.getValue(b) + scores.getValue(c))
+        }
+        Assertions.assertEquals(expectedDistances.sorted().take(100), result.map { route -> route.map { scores.getValue(it) }.sum() })
+        Assertions.assertEquals(100, result.toSet().size)
+    }
+
+    @Test
+    fun `test routes are enumerated lazily beyond the result size`() {
+        val random = Random(11)
+        val scores = mutableMapOf<Int, Int>()
+        val matcher = newMatcher()
+        for (depth in 0 until 3) {
+            val matches = (0 until 10).map {
+                val wordId = depth * 1000 + it
+                scores[wordId] = random.nextInt(5)
+                Match(wordId, depth + 1, scores.getValue(wordId))
+            }
+            matcher.result(depth, false, matches.toSet())
+        }
+        matcher.result(3, true, emptySet())
+        val phraseSearch = PhraseSearch(matcher, 10)
+
+        val routes = phraseSearch.findRoutes().asSequence().toList()
+
+        Assertions.assertEquals(1000, routes.toSet().size)
+        val distances = routes.map { route -> route.map { scores.getValue(it) }.sum() }
+        Assertions.assertEquals(distances.sorted(), distances)
+        Assertions.assertEquals(routes.take(10), phraseSearch.search())
+    }
+
+    @Test
+    fun `test best score of the search`() {
+        val matcher = newMatcher()
+        matcher.result(0, false, setOf(Match(1, 1, 10), Match(2, 2, 2)))
+        matcher.result(1, false, setOf(Match(3, 3, 0)))
+        matcher.result(2, false, setOf(Match(4, 3, 100)))
+        matcher.result(3, true, emptySet())
+
+        val phraseSearch = PhraseSearch(matcher)
+        Assertions.assertEquals(listOf(listOf(1, 3), listOf(2, 4)), phraseSearch.search())
+        Assertions.assertEquals(10, phraseSearch.bestScore)
+    }
+
+    @Test
+    fun `test best first search does not match depths worse than the best route`() {
+        val matcher = newMatcher()
+        matcher.result(0, false, setOf(Match(1, 1, 0), Match(2, 2, 50)))
+        matcher.result(1, false, setOf(Match(3, 3, 1)))
+        matcher.result(2, false, setOf(Match(4, 3, 0)))
+        matcher.result(3, true, emptySet())
+        every { matcher.isEnd(any()) } answers { firstArg<Int>() == 3 }
+
+        val phraseSearch = PhraseSearch(matcher, bestFirst = true)
+        val routes = phraseSearch.findRoutes()
+
+        Assertions.assertEquals(listOf(1, 3), routes.next())
+        Assertions.assertEquals(1, phraseSearch.bestScore)
+        verify(exactly = 0) { matcher.match(2, any()) }
+        verify { matcher.match(3, 0) }
+
+        // the worse depths are only matched once the next route is requested
+        Assertions.assertEquals(listOf(listOf(2, 4)), routes.asSequence().toList())
+        verify { matcher.match(2, any()) }
+    }
+
+    @Test
+    fun `test best first search finds the same routes`() {
+        for (seed in 0 until 20) {
+            val random = Random(seed.toLong())
+            val matcher = RandomMatcher(random, 12)
+            val routes = PhraseSearch(matcher, Int.MAX_VALUE).search()
+            val bestFirstRoutes = PhraseSearch(matcher, Int.MAX_VALUE, bestFirst = true).search()
+
+            // routes with the same score may be found in a different order
+            Assertions.assertEquals(
+                routes.groupBy { matcher.score(it) }.mapValues { it.value.toSet() },
+                bestFirstRoutes.groupBy { matcher.score(it) }.mapValues { it.value.toSet() }
+            )
+            Assertions.assertEquals(routes.map { matcher.score(it) }, bestFirstRoutes.map { matcher.score(it) })
+        }
+    }
+
     private fun test(inputs: Collection<Triple<Int, Boolean, Set<Match>>>, expectedResult: List<List<Int>>, resultCount: Int = 100) {
         val matcher = newMatcher()
 
@@ -133,6 +274,82 @@ internal class PhraseSearchTest {
         Assertions.assertEquals(expectedResult, result)
     }
 
+    @Test
+    fun `test beam keeps memory and work per depth bounded`() {
+        val beamWidth = 5
+        for (length in listOf(50, 100, 200, 400)) {
+            val matcher = RandomMatcher(Random(length.toLong()), length, 150)
+            val exactSearch = PhraseSearch(matcher, 1)
+            val beamSearch = PhraseSearch(matcher, 1, beamWidth = beamWidth)
+
+            Assertions.assertEquals(exactSearch.search(), beamSearch.search())
+            // only the stored matches are added to the candidates, the other matches are dropped right away
+            Assertions.assertTrue(exactSearch.storedMatchCount > length * 50)
+            Assertions.assertTrue(
+                beamSearch.storedMatchCount <= length * beamWidth * 10,
+                "${beamSearch.storedMatchCount} matches stored for $length depths"
+            )
+        }
+    }
+
+    @Test
+    fun `test beam finds the routes at the default width`() {
+        for (seed in 0 until 10) {
+            val matcher = RandomMatcher(Random(seed.toLong()), 30, 600)
+            val exactSearch = PhraseSearch(matcher)
+            val routes = exactSearch.search()
+            val beamSearch = PhraseSearch(matcher, beamWidth = PhraseSearch.DEFAULT_BEAM_WIDTH)
+            val beamRoutes = beamSearch.search()
+            val bestFirstBeamRoutes = PhraseSearch(
+                matcher, beamWidth = PhraseSearch.DEFAULT_BEAM_WIDTH, bestFirst = true
+            ).search()
+
+            Assertions.assertEquals(100, routes.size)
+            Assertions.assertTrue(beamSearch.storedMatchCount < exactSearch.storedMatchCount)
+            // routes with the same score may be found in a different order
+            Assertions.assertEquals(routes.map { matcher.score(it) }, beamRoutes.map { matcher.score(it) })
+            Assertions.assertEquals(routes.map { matcher.score(it) }, bestFirstBeamRoutes.map { matcher.score(it) })
+        }
+    }
+
+    @Test
+    fun `test beam width has to be positive`() {
+        Assertions.assertThrows(IllegalArgumentException::class.java) { PhraseSearch(newMatcher(), beamWidth = 0) }
+    }
+
+    /**
+     * up to maxMatches random matches of up to three depths from every depth, the word id of every match is unique, so the score of a
+     * route can be calculated from its word ids. the matches above maxScore are left out
+     */
+    private class RandomMatcher(random: Random, private val length: Int, maxMatches: Int = 3) : Matcher {
+        private val scores = mutableListOf<Int>()
+        private val matches = Array(length) { depth ->
+            (0 until 1 + random.nextInt(maxMatches)).map {
+                scores.add(random.nextInt(10))
+                Match(scores.size - 1, minOf(length, depth + 1 + random.nextInt(3)), scores.last())
+            }.toSet()
+        }
+
+        fun score(route: List<Int>): Int {
+            return route.sumBy { scores[it] }
+        }
+
+        override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+            return match(depth, Int.MAX_VALUE)
+        }
+
+        override fun match(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
+            if (depth == length) {
+                return Pair(true, emptySet())
+            }
+            return Pair(false, matches[depth].filter { it.score <= maxScore }.toSet())
+        }
+
+        override fun isEnd(depth: Int): Boolean {
+            return depth == length
+        }
+    }
+
     private fun newMatcher(): Matcher {
         return mockk()
     }
@@ -140,6 +357,7 @@ internal class PhraseSearchTest {
     private fun Matcher.result(depth: Int, done: Boolean, results: Set<Match>) {
         val matcher = this
         every { matcher.match(depth) } returns Pair(done, results)
+        every { matcher.match(depth, any()) } returns Pair(done, results)
     }
 
 }
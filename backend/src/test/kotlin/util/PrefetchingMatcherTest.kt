@@ -0,0 +1,147 @@
+package util
+
+import exception.BadRequestException
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import util.trie.TrieMatcher
+import util.trie.createTries
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+internal class PrefetchingMatcherTest {
+
+    private val executor = Executors.newFixedThreadPool(4)
+
+    @AfterEach
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun `test prefetched search finds the same routes`() {
+        val random = Random(3)
+        val syllables = listOf("ber", "burg", "ville", "zell", "ach", "sch", "ou", "ton", "see", "au")
+        val words = (0 until 500).map {
+            (0 until random.nextInt(1, 3)).joinToString("") { syllables[random.nextInt(syllables.size)] }
+        }
+        val phrases = (0 until 20).map {
+            (0 until random.nextInt(1, 5)).joinToString(" ") { words[random.nextInt(words.size)] }
+        }
+
+        for (trie in createTries(words)) {
+            for (phrase in phrases) {
+                val expected = PhraseSearch(TrieMatcher(phrase, trie), 10).search()
+                val matcher = PrefetchingMatcher(executor) { TrieMatcher(phrase, trie) }
+
+                Assertions.assertEquals(expected, PhraseSearch(matcher, 10).search(), phrase)
+
+                val exactSearch = PhraseSearch(TrieMatcher(phrase, trie))
+                val exactRoutes = exactSearch.findRoutes()
+                val bestFirstMatcher = PrefetchingMatcher(executor) { TrieMatcher(phrase, trie) }
+                val bestFirstSearch = PhraseSearch(bestFirstMatcher, bestFirst = true)
+                val bestFirstRoutes = bestFirstSearch.findRoutes()
+                Assertions.assertEquals(exactRoutes.hasNext(), bestFirstRoutes.hasNext(), phrase)
+                Assertions.assertEquals(exactSearch.bestScore, bestFirstSearch.bestScore, phrase)
+            }
+        }
+    }
+
+    @Test
+    fun `test reachable depths are matched once`() {
+        val matchedDepths = mutableListOf<Int>()
+        val matcher = PrefetchingMatcher(executor) {
+            object : Matcher {
+                override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+                    synchronized(matchedDepths) { matchedDepths.add(depth) }
+                    return if (depth == 3) {
+                        Pair(true, emptySet())
+                    } else {
+                        Pair(false, (depth + 1..3).map { Match(depth, it, 1) }.toSet())
+                    }
+                }
+            }
+        }
+
+        Assertions.assertEquals(listOf(listOf(0)), PhraseSearch(matcher, 1).search())
+        Assertions.assertEquals(listOf(0, 1, 2, 3), matchedDepths.sorted())
+    }
+
+    @Test
+    fun `test max score is passed to the matcher and its prefetches`() {
+        val maxScores = Collections.synchronizedList(mutableListOf<Pair<Int, Int>>())
+        val matcher = PrefetchingMatcher(executor) {
+            object : Matcher {
+                override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+                    return match(depth, Int.MAX_VALUE)
+                }
+
+                override fun match(depth: Int, maxScore: Int): Pair<Boolean, Set<Match>> {
+                    maxScores.add(Pair(depth, maxScore))
+                    return Pair(depth == 3, if (depth == 0) setOf(Match(0, 1, 1), Match(0, 2, 1)) else emptySet())
+                }
+
+                override fun isEnd(depth: Int): Boolean {
+                    return depth == 3
+                }
+            }
+        }
+
+        matcher.match(0, 5)
+        // the prefetch is bounded by 5, which is enough for a lower bound
+        matcher.match(1, 3)
+        // but not for a higher one, so the depth is matched again
+        matcher.match(2, Int.MAX_VALUE)
+
+        Assertions.assertTrue(maxScores.containsAll(listOf(Pair(0, 5), Pair(1, 5), Pair(2, Int.MAX_VALUE))))
+        Assertions.assertFalse(maxScores.contains(Pair(1, 3)))
+        Assertions.assertTrue(matcher.isEnd(3))
+        Assertions.assertFalse(matcher.isEnd(2))
+    }
+
+    @Test
+    fun `test close cancels the prefetches not started yet`() {
+        val singleThreadExecutor = Executors.newSingleThreadExecutor()
+        val blockedMatch = CountDownLatch(1)
+        val matchedDepths = Collections.synchronizedList(mutableListOf<Int>())
+        val matcher = PrefetchingMatcher(singleThreadExecutor) {
+            object : Matcher {
+                override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+                    matchedDepths.add(depth)
+                    if (depth == 1) {
+                        blockedMatch.await()
+                    }
+                    return Pair(false, (depth + 1..3).map { Match(depth, it, 1) }.toSet())
+                }
+            }
+        }
+
+        matcher.match(0)
+        matcher.close()
+        blockedMatch.countDown()
+        singleThreadExecutor.shutdown()
+        singleThreadExecutor.awaitTermination(10, TimeUnit.SECONDS)
+
+        Assertions.assertFalse(matchedDepths.contains(2))
+        Assertions.assertFalse(matchedDepths.contains(3))
+    }
+
+    @Test
+    fun `test exceptions of prefetched matches are thrown`() {
+        val matcher = PrefetchingMatcher(executor) {
+            object : Matcher {
+                override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+                    if (depth == 1) {
+                        throw BadRequestException("failed")
+                    }
+                    return Pair(false, setOf(Match(0, 1, 0)))
+                }
+            }
+        }
+
+        Assertions.assertThrows(BadRequestException::class.java) { PhraseSearch(matcher).search() }
+    }
+}
@@ -0,0 +1,92 @@
+package util
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+internal class RegionRegistryTest {
+
+    @Test
+    fun `test regions are loaded on first use`() {
+        val loadedRegions = mutableListOf<Region>()
+        val registry = RegionRegistry(Long.MAX_VALUE, { 1L }) { region: Region -> loadedRegions.add(region); region.id }
+
+        Assertions.assertTrue(loadedRegions.isEmpty())
+        Assertions.assertEquals("us", registry.get(Region.US))
+        Assertions.assertEquals("us", registry.get(Region.US))
+        Assertions.assertEquals(listOf(Region.US), loadedRegions)
+        Assertions.assertFalse(registry.isLoaded(Region.DACH))
+    }
+
+    @Test
+    fun `test least recently used region is evicted when the budget is exceeded`() {
+        val loads = AtomicInteger()
+        val registry = RegionRegistry(15, { 10L }) { region: Region -> loads.incrementAndGet(); region.id }
+
+        registry.get(Region.US)
+        registry.get(Region.DACH)
+
+        Assertions.assertFalse(registry.isLoaded(Region.US))
+        Assertions.assertTrue(registry.isLoaded(Region.DACH))
+        Assertions.assertEquals(10, registry.getResidentSize())
+
+        registry.get(Region.US)
+
+        Assertions.assertEquals(3, loads.get())
+        Assertions.assertTrue(registry.isLoaded(Region.US))
+        Assertions.assertFalse(registry.isLoaded(Region.DACH))
+    }
+
+    @Test
+    fun `test recently used region is kept`() {
+        val loadedRegions = mutableListOf<String>()
+        val registry = RegionRegistry(25, { 10L }) { region: String -> loadedRegions.add(region); region }
+
+        registry.get("a")
+        registry.get("b")
+        registry.get("a")
+        // a was loaded first but used last, so b is evicted instead of a
+        registry.get("c")
+
+        Assertions.assertTrue(registry.isLoaded("a"))
+        Assertions.assertFalse(registry.isLoaded("b"))
+        Assertions.assertTrue(registry.isLoaded("c"))
+        Assertions.assertEquals(20, registry.getResidentSize())
+
+        registry.get("a")
+        registry.get("b")
+
+        Assertions.assertEquals(listOf("a", "b", "c", "b"), loadedRegions)
+        Assertions.assertTrue(registry.isLoaded("a"))
+        Assertions.assertFalse(registry.isLoaded("c"))
+    }
+
+    @Test
+    fun `test concurrent first uses load once`() {
+        val loads = AtomicInteger()
+        val start = CountDownLatch(1)
+        val registry = RegionRegistry(Long.MAX_VALUE, { 1L }) { region: Region ->
+            loads.incrementAndGet()
+            Thread.sleep(50)
+            region.id
+        }
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = (0 until 8).map {
+                executor.submit<String> {
+                    start.await()
+                    registry.get(Region.DACH)
+                }
+            }
+            start.countDown()
+
+            results.forEach { Assertions.assertEquals("dach", it.get(5, TimeUnit.SECONDS)) }
+            Assertions.assertEquals(1, loads.get())
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
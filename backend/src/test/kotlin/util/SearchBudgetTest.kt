@@ -0,0 +1,37 @@
+package util
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+internal class SearchBudgetTest {
+
+    @Test
+    fun `test unlimited budget is never exhausted`() {
+        val budget = SearchBudget()
+        repeat(10_000) { Assertions.assertTrue(budget.expand()) }
+        Assertions.assertFalse(budget.isExhausted)
+        Assertions.assertFalse(budget.hasStoppedSearch)
+        Assertions.assertEquals(10_000, budget.expansions)
+    }
+
+    @Test
+    fun `test budget is exhausted after max expansions`() {
+        val budget = SearchBudget(maxExpansions = 3)
+        repeat(3) { Assertions.assertTrue(budget.expand()) }
+        Assertions.assertFalse(budget.hasStoppedSearch)
+        Assertions.assertFalse(budget.expand())
+        Assertions.assertTrue(budget.hasStoppedSearch)
+        Assertions.assertFalse(budget.expand())
+        Assertions.assertTrue(budget.isExhausted)
+    }
+
+    @Test
+    fun `test budget is exhausted after timeout`() {
+        val budget = SearchBudget(timeoutMillis = 0)
+        Assertions.assertTrue(budget.isExhausted)
+        // no search was stopped yet, only the clock was read
+        Assertions.assertFalse(budget.hasStoppedSearch)
+        Assertions.assertFalse(budget.expand())
+        Assertions.assertTrue(budget.hasStoppedSearch)
+    }
+}
@@ -0,0 +1,99 @@
+package util.trie
+
+import org.apache.commons.text.similarity.LevenshteinDistance
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import util.Match
+import util.SearchBudget
+import kotlin.random.Random
+
+internal class LevenshteinMatcherTest {
+
+    @Test
+    fun `test exact match has score 0`() {
+        test("mountain", listOf("mountain", "moon"), 0, setOf(Match(0, 8, 0)))
+    }
+
+    @Test
+    fun `test typos within the budget are matched`() {
+        test("mountian", listOf("mountain"), 0, setOf(Match(0, 8, 2)))
+        test("mountan", listOf("mountain"), 0, setOf(Match(0, 7, 1)))
+    }
+
+    @Test
+    fun `test typos over the budget are not matched`() {
+        test("mxuntiam", listOf("mountain"), 0, emptySet())
+    }
+
+    @Test
+    fun `test short words need to match exactly`() {
+        test("ab", listOf("ab", "ac", "a"), 0, setOf(Match(0, 2, 0)))
+    }
+
+    @Test
+    fun `test matches end at word beginnings of the phrase`() {
+        test("moon mountain", listOf("moon", "mountain"), 0, setOf(Match(0, 4, 0)))
+        test("moon mountain", listOf("moon", "mountain"), 4, setOf(Match(1, 12, 0)))
+    }
+
+    @Test
+    fun `test end of phrase is done`() {
+        for (trie in createTries(listOf("moon"))) {
+            Assertions.assertEquals(Pair(true, emptySet<Match>()), LevenshteinMatcher("moon", trie).match(4))
+        }
+    }
+
+    @Test
+    fun `test expansions are the same on every trie engine`() {
+        val words = listOf("mountain", "moon", "mount view", "vienna", "wien", "boston", "austin", "salem")
+        val expansions = createTries(words).map { trie ->
+            val budget = SearchBudget()
+            val matcher = LevenshteinMatcher("mountan vien", trie, budget = budget)
+            matcher.match(0)
+            matcher.match(8)
+            budget.expansions
+        }
+
+        Assertions.assertTrue(expansions[0] > 0)
+        Assertions.assertEquals(List(expansions.size) { expansions[0] }, expansions)
+    }
+
+    @Test
+    fun `test finds the same matches as comparing every word`() {
+        val random = Random(3)
+        val alphabet = "abcdeou"
+        val words = (0 until 500).map {
+            (0 until random.nextInt(1, 9)).map { alphabet[random.nextInt(alphabet.length)] }.joinToString("")
+        }
+        val levenshteinDistance = LevenshteinDistance()
+
+        for (trie in createTries(words)) {
+            for (i in 0 until 30) {
+                val phrase = (0 until random.nextInt(1, 12)).map { alphabet[random.nextInt(alphabet.length)] }
+                    .joinToString("")
+                val matcher = LevenshteinMatcher(phrase, trie, true)
+                for (depth in phrase.indices) {
+                    val expected = mutableSetOf<Match>()
+                    words.forEachIndexed { id, word ->
+                        for (end in depth + 1..phrase.length) {
+                            val distance = levenshteinDistance.apply(word, phrase.substring(depth, end))
+                            if (distance <= LevenshteinMatcher.allowedDistance(end - depth)) {
+                                expected.add(Match(id, end, distance))
+                            }
+                        }
+                    }
+                    Assertions.assertEquals(expected, matcher.match(depth).second, "$phrase at $depth")
+                }
+            }
+        }
+    }
+
+    private fun test(search: String, inputWords: List<String>, depth: Int, results: Set<Match>) {
+        for (trie in createTries(inputWords)) {
+            val result = LevenshteinMatcher(search, trie).match(depth)
+
+            Assertions.assertFalse(result.first)
+            Assertions.assertEquals(results, result.second)
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package util.trie
+
+import util.Matcher
+import util.PhraseSearch
+import util.SearchBudget
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+
+/**
+ * compares the beam search of TrieMatcher and PhraseSearch with the exact search on paragraph-length phrases. the words
+ * are built from overlapping fuzzy groups like the adversarial ones of TrieMatcherBenchmark, so every depth has many
+ * matches, and some letters of the phrases are replaced. for every beam width the time, the expanded nodes, the matches
+ * the PhraseSearch stored and the score of the best routes relative to the ones of the exact search are printed, as
+ * well as the ones of the exact best first search
+ */
+fun main() {
+    val random = Random(42)
+    val syllables = listOf("s", "z", "ss", "ts", "zs", "a", "e", "ae", "ä", "ou", "ue", "oe", "sch", "ch")
+    val words = (0 until 200_000).map {
+        (0 until random.nextInt(2, 9)).joinToString("") { syllables[random.nextInt(syllables.size)] }
+    }
+    val createTrie = createTrie(words.mapIndexed { id, word -> id.toLong() to word })
+    createTrie.calculateOffsets()
+    val out = ByteArrayOutputStream()
+    saveTrie(out, createTrie)
+    val trie = Trie.load(out.toByteArray())
+
+    val phrases = (0 until 10).map {
+        (0 until random.nextInt(20, 40)).joinToString(" ") { words[random.nextInt(words.size)] }
+            .map { if (it != ' ' && random.nextInt(8) == 0) "aeiosuz"[random.nextInt(7)] else it }
+            .joinToString("")
+    }
+
+    for (round in 0 until 3) {
+        val exact = measure(phrases) { phrase, budget ->
+            TrieMatcher(phrase, trie, budget = budget)
+        }
+        val exactMillis = exact.millis
+        val exactScores = exact.scores
+        println(
+            "round $round: exact $exactMillis ms, ${exact.expansions} expanded nodes, " +
+                    "${exact.storedMatches} stored matches"
+        )
+        val bestFirst = measure(phrases, bestFirst = true) { phrase, budget ->
+            TrieMatcher(phrase, trie, budget = budget)
+        }
+        println(
+            "round $round: best first ${bestFirst.millis} ms " +
+                    "(${String.format("%.2f", exactMillis.toDouble() / bestFirst.millis)}x), " +
+                    "${bestFirst.expansions} expanded nodes, same scores: ${bestFirst.scores == exactScores}"
+        )
+        for (beamWidth in listOf(1, 3, 10, 30, 100)) {
+            val beam = measure(phrases, beamWidth = beamWidth) { phrase, budget ->
+                TrieMatcher(phrase, trie, budget = budget, beamWidth = beamWidth)
+            }
+            val beamMillis = beam.millis
+            val beamScores = beam.scores
+            val foundRoutes = phrases.indices.filter { beamScores[it] != null && exactScores[it] != null }
+            val exactRoutes = foundRoutes.count { beamScores[it] == exactScores[it] }
+            val scoreIncrease = foundRoutes.map { beamScores[it]!!.toLong() }.sum().toDouble() /
+                    foundRoutes.map { exactScores[it]!!.toLong() }.sum() - 1
+            println(
+                "round $round: beam width $beamWidth $beamMillis ms " +
+                        "(${String.format("%.2f", exactMillis.toDouble() / beamMillis)}x), " +
+                        "${beam.expansions} expanded nodes, " +
+                        "${beam.storedMatches} stored matches, " +
+                        "${foundRoutes.size} of ${phrases.size} routes found, $exactRoutes of them the best, " +
+                        "their scores ${String.format("%.1f", scoreIncrease * 100)}% higher"
+            )
+        }
+    }
+}
+
+/**
+ * the time of all searches, the score of the best route of every phrase (null if none was found), the number of expanded
+ * trie nodes and the number of matches the PhraseSearch stored
+ */
+private class Measurement(val millis: Long, val scores: List<Int?>, val expansions: Long, val storedMatches: Long)
+
+private fun measure(
+    phrases: List<String>,
+    bestFirst: Boolean = false,
+    beamWidth: Int = Int.MAX_VALUE,
+    createMatcher: (String, SearchBudget) -> Matcher
+): Measurement {
+    var expansions = 0L
+    var storedMatches = 0L
+    val start = System.nanoTime()
+    val scores = phrases.map {
+        val budget = SearchBudget()
+        val phraseSearch = PhraseSearch(createMatcher(it, budget), 1, budget, bestFirst, beamWidth)
+        val routes = phraseSearch.findRoutes()
+        expansions += budget.expansions
+        storedMatches += phraseSearch.storedMatchCount
+        if (routes.hasNext()) phraseSearch.bestScore else null
+    }
+    return Measurement((System.nanoTime() - start) / 1_000_000, scores, expansions, storedMatches)
+}
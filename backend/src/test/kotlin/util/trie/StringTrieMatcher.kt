@@ -0,0 +1,114 @@
+package util.trie
+
+import org.apache.commons.text.similarity.LevenshteinDistance
+import util.Match
+import util.Matcher
+
+/**
+ * the former implementation of TrieMatcher, which looks up the fuzzy strings of every position in
+ * TrieMatcher.FUZZY_GROUPS with substrings and walks every string separately. it is kept to compare the results and
+ * the speed of TrieMatcher with it.
+ */
+internal class StringTrieMatcher(
+    search: String,
+    private val trie: Trie,
+    private val splitWords: Boolean = false
+) : Matcher {
+
+    companion object {
+        private val LEVENSHTEIN_DISTANCE = LevenshteinDistance()
+    }
+
+    private val word = search.filter { it.toLowerCase().isLetter() }.toLowerCase()
+    private val wordBeginnings = findWordBeginnings(search)
+    private val currentTriePath = StringBuilder()
+    private var startDepth = 0
+    private val results = mutableSetOf<Match>()
+    private val postings = PostingList()
+
+    override fun match(depth: Int): Pair<Boolean, Set<Match>> {
+        if (depth == word.length) {
+            return Pair(true, emptySet())
+        }
+        startDepth = depth
+        results.clear()
+        recursiveSearch(depth, trie.rootNode)
+        return Pair(false, results.toSet())
+    }
+
+    private fun recursiveSearch(depth: Int, node: Long) {
+        if (depth >= word.length) {
+            if (depth == word.length && trie.isWord(node)) {
+                matched(node, depth)
+            }
+            return
+        }
+        if ((splitWords || wordBeginnings[depth]) && trie.isWord(node)) {
+            matched(node, depth)
+        }
+        for (fuzzyString in collectFuzzyStrings(depth)) {
+            tryFuzzyString(fuzzyString, depth, node)
+        }
+    }
+
+    private fun matched(node: Long, endDepth: Int) {
+        val score = LEVENSHTEIN_DISTANCE.apply(
+            currentTriePath.toString(),
+            word.substring(startDepth, endDepth)
+        )
+        trie.readWords(node, postings)
+        while (postings.hasNext()) {
+            results.add(Match(postings.next(), endDepth, score))
+        }
+    }
+
+    private fun collectFuzzyStrings(depth: Int): List<String> {
+        val nextChars = mutableListOf<String>()
+        if (depth + 1 <= word.length) nextChars.add(word.substring(depth, depth + 1))
+        if (depth + 2 <= word.length) nextChars.add(word.substring(depth, depth + 2))
+
+        val fuzzyStrings = mutableListOf<String>()
+        nextChars.forEach { nextChar ->
+            TrieMatcher.FUZZY_GROUPS[nextChar]?.let { fuzzyStrings.addAll(it) }
+        }
+        if (fuzzyStrings.isEmpty()) {
+            val nextChar = word.substring(depth, depth + 1)
+            fuzzyStrings.add(nextChar)
+            fuzzyStrings.add(nextChar + nextChar)
+        }
+        return fuzzyStrings
+    }
+
+    private fun tryFuzzyString(fuzzyMatchToTry: String, depth: Int, node: Long) {
+        var currentNode = node
+        for (char in fuzzyMatchToTry) {
+            currentNode = trie.getChild(currentNode, char)
+            if (currentNode == Trie.NO_NODE) {
+                return
+            }
+        }
+        currentTriePath.append(fuzzyMatchToTry)
+        if (fuzzyMatchToTry.length > 1) {
+            recursiveSearch(depth + fuzzyMatchToTry.length - 1, currentNode)
+        }
+        recursiveSearch(depth + fuzzyMatchToTry.length, currentNode)
+        recursiveSearch(depth + fuzzyMatchToTry.length + 1, currentNode)
+        currentTriePath.setLength(currentTriePath.length - fuzzyMatchToTry.length)
+    }
+
+    private fun findWordBeginnings(search: String): BooleanArray {
+        val wordBeginnings = BooleanArray(word.length + 1)
+        var i = 0
+        var lastChar: Char? = null
+        for (char in search) {
+            val lowerChar = char.toLowerCase()
+            if (lowerChar.isLetter()) {
+                i++
+            } else if (lowerChar.isWhitespace() && !(lastChar == null || lastChar.isWhitespace())) {
+                wordBeginnings[i] = true
+            }
+            lastChar = lowerChar
+        }
+        return wordBeginnings
+    }
+}
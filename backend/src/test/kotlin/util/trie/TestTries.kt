@@ -0,0 +1,20 @@
+package util.trie
+
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * creates the same trie with every engine, the id of a word is its index
+ */
+internal fun createTries(inputWords: List<String>): List<Trie> {
+    val trie = createTrie(inputWords.mapIndexed { id, word -> id.toLong() to word })
+    trie.calculateOffsets()
+    val out = ByteArrayOutputStream()
+    saveTrie(out, trie)
+    val indexedTrie = IndexedTrie(ByteBuffer.wrap(out.toByteArray()))
+    val doubleArrayOut = ByteArrayOutputStream()
+    saveDoubleArrayTrie(doubleArrayOut, CreateDoubleArrayTrie(indexedTrie))
+    val dawgOut = ByteArrayOutputStream()
+    saveDawg(dawgOut, CreateDawg(indexedTrie))
+    return listOf(out, doubleArrayOut, dawgOut).map { Trie.load(it.toByteArray()) }
+}
@@ -0,0 +1,76 @@
+package util.trie
+
+import util.Matcher
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+
+/**
+ * compares the speed of TrieMatcher with the former StringTrieMatcher on a generated trie. the words and phrases are
+ * built from syllables, so the fuzzy groups find many alternatives like in real place names. the adversarial phrases
+ * consist only of strings of overlapping fuzzy groups, so the same trie node is reached at the same depth in many ways
+ */
+fun main() {
+    val random = Random(42)
+    val syllables = listOf(
+        "ber", "burg", "ville", "ton", "hau", "sen", "mo", "un", "tain", "sch", "ach", "zell", "ou", "spring", "field",
+        "wi", "en", "neu", "stadt", "kir", "chen", "ö", "ü", "ä", "qu", "ee", "ing", "ford"
+    )
+    val words = (0 until 200_000).map {
+        (0 until random.nextInt(1, 5)).joinToString("") { syllables[random.nextInt(syllables.size)] }
+    }
+    val phrases = (0 until 200).map {
+        (0 until random.nextInt(2, 5)).joinToString(" ") { words[random.nextInt(words.size)] }
+    }
+    compare("random", words, phrases)
+
+    val adversarialSyllables = listOf("s", "z", "ss", "ts", "zs", "a", "e", "ae", "ä", "ou", "ue", "oe", "sch", "ch")
+    val adversarialWords = (0 until 200_000).map {
+        (0 until random.nextInt(2, 9)).joinToString("") {
+            adversarialSyllables[random.nextInt(adversarialSyllables.size)]
+        }
+    }
+    val adversarialPhrases = (0 until 10).map {
+        (0 until random.nextInt(3, 7)).joinToString("") { listOf("sa", "ze", "tsa", "zae", "soue")[random.nextInt(5)] }
+    }
+    compare("adversarial", adversarialWords, adversarialPhrases)
+}
+
+private fun compare(name: String, words: List<String>, phrases: List<String>) {
+    val createTrie = createTrie(words.mapIndexed { id, word -> id.toLong() to word })
+    createTrie.calculateOffsets()
+    val out = ByteArrayOutputStream()
+    saveTrie(out, createTrie)
+    val trie = Trie.load(out.toByteArray())
+
+    for (round in 0 until 5) {
+        val stringMillis = measure(phrases) { matchAllDepths(StringTrieMatcher(it, trie)) }
+        val automatonMillis = measure(phrases) { matchAllDepths(TrieMatcher(it, trie)) }
+        println(
+            "$name round $round: strings $stringMillis ms, automatons $automatonMillis ms " +
+                    "(${String.format("%.2f", stringMillis.toDouble() / automatonMillis)}x)"
+        )
+    }
+}
+
+private fun matchAllDepths(matcher: Matcher): Int {
+    var matches = 0
+    var depth = 0
+    while (true) {
+        val (done, results) = matcher.match(depth++)
+        if (done) {
+            return matches
+        }
+        matches += results.size
+    }
+}
+
+private fun measure(phrases: List<String>, match: (String) -> Int): Long {
+    val start = System.nanoTime()
+    var matches = 0
+    phrases.forEach { matches += match(it) }
+    val millis = (System.nanoTime() - start) / 1_000_000
+    if (matches < 0) {
+        println(matches)
+    }
+    return millis
+}
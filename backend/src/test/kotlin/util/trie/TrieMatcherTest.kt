@@ -3,10 +3,30 @@ package util.trie
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import util.Match
-import java.io.ByteArrayOutputStream
+import util.InMemoryPlaceRepository
+import util.PhraseSearch
+import util.SearchBudget
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.random.Random
+import java.lang.management.ManagementFactory
 
 internal class TrieMatcherTest {
 
+    companion object {
+        private val PLACE_CORPUS = listOf(
+            "wien", "linz", "graz", "salzburg", "innsbruck", "klagenfurt", "villach", "wels", "steyr", "leoben",
+            "zürich", "bern", "basel", "luzern", "zug", "schwyz", "sion", "chur", "thun", "biel",
+            "münchen", "köln", "hamburg", "berlin", "bonn", "ulm", "essen", "kiel", "mainz", "trier",
+            "hallstatt", "gmunden", "bad ischl", "zell am see", "kufstein", "schärding", "mödling", "baden", "tulln",
+            "krems", "melk", "ybbs", "enns", "hall", "imst", "lienz", "spittal", "bludenz", "feldkirch", "dornbirn",
+            "boston", "austin", "denver", "dallas", "houston", "phoenix", "salem", "dover", "troy", "paris",
+            "moscow", "berlin", "rome", "athens", "vienna", "naples", "london", "portland", "springfield", "madison",
+            "tea", "ham", "bath", "rye", "wells", "ely", "bury", "ripon", "tring", "cheddar"
+        )
+    }
+
     @Test
     fun `test empty trie is empty result`() {
         test(0, "search", emptyList(), false, emptySet())
@@ -151,6 +171,314 @@ internal class TrieMatcherTest {
         )
     }
 
+    @Test
+    fun `test all places with the same name are matched`() {
+        test(
+            0, "vienna",
+            listOf(
+                "vienna",
+                "anotherword",
+                "vienna",
+                "vienna"
+            ),
+            false, setOf(
+                Match(0, 6, 0),
+                Match(2, 6, 0),
+                Match(3, 6, 0)
+            )
+        )
+    }
+
+    @Test
+    fun `test search without results does not allocate`() {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        // the x can't be reached with fuzzy matching, so the search walks deep into the trie without ever matching
+        for (trie in createTries(listOf("mountain".repeat(4) + "x", "moon"))) {
+            val matcher = TrieMatcher("moontain moontain moontain moontain", trie)
+            repeat(3) { matcher.match(0) }
+
+            val allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+            val result = matcher.match(0)
+            val allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id) - allocatedBefore
+
+            Assertions.assertEquals(emptySet<Match>(), result.second)
+            // only the returned Pair may be allocated
+            Assertions.assertTrue(allocated < 256, "allocated $allocated bytes")
+        }
+    }
+
+    @Test
+    fun `test search with results only allocates the results`() {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        // the search walks deep into the trie like above, but also matches all the places named mountain
+        for (trie in createTries(listOf("mountain".repeat(4) + "x") + List(200) { "mountain" })) {
+            val matcher = TrieMatcher("moontain moontain moontain moontain", trie)
+            repeat(3) { matcher.match(0) }
+
+            val allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+            val result = matcher.match(0)
+            val allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id) - allocatedBefore
+
+            Assertions.assertTrue(result.second.size >= 200)
+            // the walk through the trie and the posting lists don't allocate, only every Match and its entry in the
+            // returned set do
+            Assertions.assertTrue(
+                allocated < 256 + result.second.size * 96,
+                "allocated $allocated bytes for ${result.second.size} matches"
+            )
+        }
+    }
+
+    @Test
+    fun `test fuzzy automatons find the same matches as fuzzy strings`() {
+        val random = Random(7)
+        val syllables = listOf("moun", "tain", "ville", "sch", "ach", "ou", "qu", "zz", "ts", "ö", "ü", "ae", "berg", "x")
+        val words = (0 until 2000).map {
+            (0 until random.nextInt(1, 4)).joinToString("") { syllables[random.nextInt(syllables.size)] }
+        }
+        val phrases = (0 until 50).map {
+            (0 until random.nextInt(1, 4)).joinToString(" ") { words[random.nextInt(words.size)] }
+        }
+
+        for (trie in createTries(words)) {
+            for (phrase in phrases) {
+                for (splitWords in listOf(false, true)) {
+                    val matcher = TrieMatcher(phrase, trie, splitWords)
+                    val expectedMatcher = StringTrieMatcher(phrase, trie, splitWords)
+                    // the scores differ, the automatons sum up the costs of the substitutions
+                    for (depth in 0..prepare(phrase).length) {
+                        val expected = expectedMatcher.match(depth)
+                        val actual = matcher.match(depth)
+                        Assertions.assertEquals(expected.first, actual.first, phrase)
+                        Assertions.assertEquals(
+                            expected.second.map { Pair(it.wordId, it.endDepth) }.toSet(),
+                            actual.second.map { Pair(it.wordId, it.endDepth) }.toSet(),
+                            phrase
+                        )
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `test memoised scores are the same as expanding every way`() {
+        val phrases = listOf(
+            "moontain", "vien", "saltsburg bern", "inzbruck klagenvurt", "tee ham", "kremz melk", "feldkirsch dornbirn"
+        )
+        for (trie in createTries(PLACE_CORPUS)) {
+            for (phrase in phrases) {
+                for (splitWords in listOf(false, true)) {
+                    val matcher = TrieMatcher(phrase, trie, splitWords)
+                    val expectedMatcher = TrieMatcher(phrase, trie, splitWords)
+                    expectedMatcher.memoize = false
+                    var depth = 0
+                    while (true) {
+                        val expected = expectedMatcher.match(depth)
+                        Assertions.assertEquals(expected, matcher.match(depth), "$phrase at $depth")
+                        if (expected.first) {
+                            break
+                        }
+                        depth++
+                    }
+
+                    val search = PhraseSearch(matcher)
+                    val expectedSearch = PhraseSearch(expectedMatcher)
+                    Assertions.assertEquals(expectedSearch.search(), search.search(), phrase)
+                    Assertions.assertEquals(expectedSearch.bestScore, search.bestScore, phrase)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `test corpus phrases are routed like with levenshtein scores`() {
+        // the expected routes are the ones StringTrieMatcher, which scores with the levenshtein distance, finds
+        val corpus = listOf(
+            "vienna" to listOf("vienna"),
+            "vien" to listOf("wien"),
+            "zurich" to listOf("zürich"),
+            "munchen" to listOf("münchen"),
+            "koeln" to listOf("köln"),
+            "saltsburg" to listOf("salzburg"),
+            "inzbruck" to listOf("innsbruck"),
+            "klagenvurt" to listOf("klagenfurt"),
+            "hallstat" to listOf("hallstatt"),
+            "schaerding" to listOf("schärding"),
+            "moedling" to listOf("mödling"),
+            "tee ham" to listOf("tea", "ham"),
+            "bern basel" to listOf("bern", "basel"),
+            "paris rome" to listOf("paris", "rome"),
+            "welz" to listOf("wels"),
+            "phoenix dover" to listOf("phoenix", "dover"),
+            "hyuston" to listOf("houston"),
+            "wells bath rye" to listOf("wells", "bath", "rye"),
+            "troy boston" to listOf("troy", "boston"),
+            "lins graz" to listOf("linz", "graz"),
+            "denver dallas austin" to listOf("denver", "dallas", "austin"),
+            "kufstain" to listOf("kufstein"),
+            "feldkirsch dornbirn" to listOf("feldkirch", "dornbirn"),
+            "kremz melk" to listOf("krems", "melk"),
+            "madisson" to listOf("madison"),
+            "portlant" to listOf("portland")
+        )
+        val words = PLACE_CORPUS
+        for (trie in createTries(words)) {
+            for ((phrase, expectedRoute) in corpus) {
+                for (matcher in listOf(StringTrieMatcher(phrase, trie), TrieMatcher(phrase, trie))) {
+                    val route = PhraseSearch(matcher, 1).search().first().map { words[it] }
+                    Assertions.assertEquals(expectedRoute, route, phrase)
+                }
+                val bestFirstRoute = PhraseSearch(TrieMatcher(phrase, trie), 1, bestFirst = true).search()
+                Assertions.assertEquals(expectedRoute, bestFirstRoute.first().map { words[it] }, phrase)
+            }
+        }
+    }
+
+    @Test
+    fun `test best first search finds the best score with less expansions`() {
+        for (trie in createTries(PLACE_CORPUS)) {
+            for (phrase in listOf("denver dallas austin", "wells bath rye", "feldkirsch dornbirn", "tee ham")) {
+                val exactBudget = SearchBudget()
+                val exactSearch = PhraseSearch(TrieMatcher(phrase, trie, budget = exactBudget), 1, exactBudget)
+                val bestFirstBudget = SearchBudget()
+                val bestFirstSearch = PhraseSearch(
+                    TrieMatcher(phrase, trie, budget = bestFirstBudget), 1, bestFirstBudget, bestFirst = true
+                )
+
+                exactSearch.search()
+                bestFirstSearch.search()
+                Assertions.assertEquals(exactSearch.bestScore, bestFirstSearch.bestScore, phrase)
+                Assertions.assertTrue(bestFirstBudget.expansions <= exactBudget.expansions, phrase)
+            }
+        }
+    }
+
+    @Test
+    fun `test exhausted budget stops the search but still finds the end`() {
+        for (trie in createTries(listOf("mountain", "moon"))) {
+            val budget = SearchBudget(maxExpansions = 0)
+            val matcher = TrieMatcher("mountain", trie, budget = budget)
+
+            Assertions.assertEquals(Pair(false, emptySet<Match>()), matcher.match(0))
+            Assertions.assertEquals(Pair(true, emptySet<Match>()), matcher.match(8))
+            Assertions.assertTrue(budget.isExhausted)
+        }
+    }
+
+    @Test
+    fun `test budget limits the expanded states`() {
+        for (trie in createTries(PLACE_CORPUS)) {
+            val budget = SearchBudget(maxExpansions = 50)
+            val phraseSearch = PhraseSearch(TrieMatcher("denver dallas austin", trie, budget = budget), budget = budget)
+
+            Assertions.assertEquals(emptyList<List<Int>>(), phraseSearch.search())
+            Assertions.assertTrue(phraseSearch.isPartial)
+            Assertions.assertEquals(50, budget.expansions)
+        }
+    }
+
+    @Test
+    fun `test beam only expands the best nodes of every depth`() {
+        for (trie in createTries(PLACE_CORPUS)) {
+            for (phrase in listOf("denver dallas austin", "mountain view", "san francisco")) {
+                val exactMatcher = TrieMatcher(phrase, trie)
+                val wideBeamMatcher = TrieMatcher(phrase, trie, beamWidth = 1_000_000)
+                var depth = 0
+                do {
+                    val exactResult = exactMatcher.match(depth)
+                    Assertions.assertEquals(exactResult, wideBeamMatcher.match(depth++), phrase)
+                } while (!exactResult.first)
+            }
+
+            val exactBudget = SearchBudget()
+            val beamBudget = SearchBudget()
+            val exactMatch = TrieMatcher("denver dallas", trie, budget = exactBudget).match(0).second
+            val beamMatch = TrieMatcher("denver dallas", trie, budget = beamBudget, beamWidth = 1).match(0).second
+
+            Assertions.assertTrue(exactMatch.containsAll(beamMatch))
+            Assertions.assertTrue(beamMatch.any { it.score == 0 })
+            Assertions.assertTrue(beamBudget.expansions < exactBudget.expansions)
+        }
+    }
+
+    @Test
+    fun `test memory mapped trie`() {
+        val trie = createTrie(listOf(0L to "mountain", 1L to "moontain"))
+        trie.calculateOffsets()
+        val file = File.createTempFile("test", ".trie")
+        try {
+            saveTrie(trie, file.path, false)
+            val result = TrieMatcher("mountain", Trie.map(file.toPath())).match(0)
+
+            Assertions.assertEquals(setOf(Match(0, 8, 0), Match(1, 8, 1)), result.second)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun `test created trie files`() {
+        testCreatedTrieFiles(1, TrieEngine.values().toSet())
+    }
+
+    @Test
+    fun `test trie files created in parallel`() {
+        testCreatedTrieFiles(4, TrieEngine.values().toSet())
+    }
+
+    @Test
+    fun `test only the binary trie is created unless other engines are selected`() {
+        testCreatedTrieFiles(1, setOf(TrieEngine.BINARY))
+    }
+
+    @Test
+    fun `test engines are parsed from their ids`() {
+        Assertions.assertEquals(setOf(TrieEngine.BINARY), parseEngines(null))
+        Assertions.assertEquals(setOf(TrieEngine.BINARY, TrieEngine.DAWG), parseEngines(" dawg,"))
+        Assertions.assertEquals(TrieEngine.values().toSet(), parseEngines("double_array,dawg"))
+        Assertions.assertThrows(IllegalArgumentException::class.java) { parseEngines("trie") }
+    }
+
+    private fun testCreatedTrieFiles(parallelism: Int, engines: Set<TrieEngine>) {
+        val placeRepository = InMemoryPlaceRepository()
+        placeRepository.addPlace(2, "Mountain")
+        placeRepository.addPlace(0, "Moon-tain")
+        placeRepository.addPlace(1, "mountain")
+        placeRepository.addPlace(3, "Zurich")
+        val directory = Files.createTempDirectory("tries")
+        try {
+            createAndSaveTrie(
+                "[TEST]",
+                placeRepository,
+                "TEST",
+                directory.toString(),
+                directory.resolve("gz").toString(),
+                parallelism,
+                engines
+            )
+
+            for (engine in TrieEngine.values()) {
+                if (!engines.contains(engine)) {
+                    Assertions.assertFalse(Files.exists(directory.resolve("TEST${engine.fileExtension}")))
+                    continue
+                }
+                val result = TrieMatcher("mountain", Trie.map(directory.resolve("TEST${engine.fileExtension}"))).match(0)
+
+                Assertions.assertEquals(setOf(Match(0, 8, 1), Match(1, 8, 0), Match(2, 8, 0)), result.second)
+                Assertions.assertTrue(Files.exists(directory.resolve("gz/TEST${engine.fileExtension}")))
+            }
+            Assertions.assertTrue(Files.exists(directory.resolve("TEST.places")))
+            Assertions.assertTrue(Files.exists(directory.resolve("TEST.phonetic")))
+        } finally {
+            deleteRecursively(directory)
+        }
+    }
+
+    private fun deleteRecursively(path: Path) {
+        Files.walk(path).sorted(Comparator.reverseOrder()).forEach { Files.delete(it) }
+    }
+
     private fun test(
         depth: Int,
         search: String,
@@ -159,14 +487,11 @@ internal class TrieMatcherTest {
         results: Set<Match>,
         splitWords: Boolean = false
     ) {
-        val trie = createTrie(inputWords.mapIndexed { id, word -> id.toLong() to word })
-        trie.calculateOffsets()
-        val out = ByteArrayOutputStream()
-        saveTrie(out, trie)
-        val result = TrieMatcher(search, Trie(out.toByteArray()), splitWords).match(depth)
+        for (trie in createTries(inputWords)) {
+            val result = TrieMatcher(search, trie, splitWords).match(depth)
 
-        Assertions.assertEquals(done, result.first)
-        Assertions.assertEquals(results, result.second)
+            Assertions.assertEquals(done, result.first)
+            Assertions.assertEquals(results, result.second)
+        }
     }
-
 }
@@ -0,0 +1,290 @@
+package util.trie
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.concurrent.ForkJoinPool
+
+internal class TrieTest {
+
+    private val words = listOf("mountain", "moon", "mount", "a", "ab", "zürich", "wien", "wiener neustadt")
+
+    @Test
+    fun `test linked format finds all words`() {
+        testFindsAllWords(TrieFormat.LINKED)
+    }
+
+    @Test
+    fun `test indexed format finds all words`() {
+        testFindsAllWords(TrieFormat.INDEXED)
+    }
+
+    @Test
+    fun `test double array format finds all words`() {
+        testFindsAllWords(TrieFormat.DOUBLE_ARRAY)
+    }
+
+    @Test
+    fun `test dawg format finds all words`() {
+        testFindsAllWords(TrieFormat.DAWG)
+    }
+
+    @Test
+    fun `test linked format does not find other words`() {
+        testDoesNotFindOtherWords(TrieFormat.LINKED)
+    }
+
+    @Test
+    fun `test indexed format does not find other words`() {
+        testDoesNotFindOtherWords(TrieFormat.INDEXED)
+    }
+
+    @Test
+    fun `test double array format does not find other words`() {
+        testDoesNotFindOtherWords(TrieFormat.DOUBLE_ARRAY)
+    }
+
+    @Test
+    fun `test dawg format does not find other words`() {
+        testDoesNotFindOtherWords(TrieFormat.DAWG)
+    }
+
+    @Test
+    fun `test indexed format contains all places of a word`() {
+        testContainsAllPlacesOfAWord(TrieFormat.INDEXED)
+    }
+
+    @Test
+    fun `test double array format contains all places of a word`() {
+        testContainsAllPlacesOfAWord(TrieFormat.DOUBLE_ARRAY)
+    }
+
+    @Test
+    fun `test dawg format contains all places of a word`() {
+        testContainsAllPlacesOfAWord(TrieFormat.DAWG)
+    }
+
+    @Test
+    fun `test dawg shares common suffixes`() {
+        val trie = createTrieWithIds(
+            listOf(1L to "springville", 2L to "ashville", 3L to "ville", 4L to "springfield", 5L to "ashfield"),
+            TrieFormat.INDEXED
+        ) as IndexedTrie
+        val dawg = CreateDawg(trie)
+
+        // the trie has 35 nodes. the dawg keeps root, s-p-r-i-n, a-s, one node for both "g" and "h", one "ville" chain
+        // and "fiel" of the "field" chain, whose "d" is the same node as the "e" of "ville"
+        Assertions.assertEquals(35, dawg.trieNodeCount)
+        Assertions.assertEquals(18, dawg.nodeCount)
+    }
+
+    @Test
+    fun `test children of every format can be enumerated`() {
+        for (trie in createTries(words.map { prepare(it) }) + createTrie(words, TrieFormat.LINKED)) {
+            val found = mutableListOf<String>()
+            collectWords(trie, trie.rootNode, "", found)
+            val foundByPosition = mutableListOf<String>()
+            collectWordsByPosition(trie, trie.rootNode, "", foundByPosition)
+
+            Assertions.assertEquals(words.map { prepare(it) }.sorted(), found, trie.javaClass.simpleName)
+            Assertions.assertEquals(found, foundByPosition, trie.javaClass.simpleName)
+        }
+    }
+
+    private fun collectWords(trie: Trie, node: Long, path: String, found: MutableList<String>) {
+        if (trie.isWord(node)) {
+            found.add(path)
+        }
+        for (i in 0 until trie.getChildCount(node)) {
+            val child = trie.getChildAt(node, i)
+            Assertions.assertNotEquals(Trie.NO_NODE, child)
+            collectWords(trie, child, path + trie.getChildChar(node, i), found)
+        }
+    }
+
+    private fun collectWordsByPosition(trie: Trie, node: Long, path: String, found: MutableList<String>) {
+        if (trie.isWord(node)) {
+            found.add(path)
+        }
+        var position = trie.getFirstChildPosition(node)
+        while (position != Trie.NO_NODE) {
+            val child = trie.getChildAtPosition(node, position)
+            collectWordsByPosition(trie, child, path + trie.getChildCharAtPosition(node, position), found)
+            position = trie.getNextChildPosition(node, position)
+        }
+    }
+
+    @Test
+    fun `test empty trie`() {
+        val root = createTrie(emptyList(), TrieFormat.INDEXED).getRoot()
+
+        Assertions.assertFalse(root.isWord())
+        Assertions.assertNull(root.getChild('a'))
+    }
+
+    @Test
+    fun `test empty double array trie`() {
+        val root = createTrie(emptyList(), TrieFormat.DOUBLE_ARRAY).getRoot()
+
+        Assertions.assertFalse(root.isWord())
+        Assertions.assertNull(root.getChild('a'))
+    }
+
+    @Test
+    fun `test streaming writer creates the same trie`() {
+        val ids = words.indices.map { it.toLong() to prepare(words[it]) } +
+                listOf(10L to "springfield", 12L to "springfield", 11L to "springfield", 10L to "springfield")
+        val expected = createTrieWithIds(ids, TrieFormat.INDEXED)
+        val path = Files.createTempFile("streaming", ".trie")
+        try {
+            ExternalWordSorter(chunkSize = 3).use { sorter ->
+                ids.reversed().forEach { sorter.add(it.second, it.first.toInt()) }
+                StreamingTrieWriter(path).use { writer ->
+                    sorter.forEachSorted { word, id -> writer.addWord(id, word) }
+                }
+            }
+            val trie = Trie.map(path)
+
+            for (word in ids.map { it.second }.distinct() + listOf("moun", "spring", "mountains", "b")) {
+                Assertions.assertEquals(readWords(find(expected, word)), readWords(find(trie, word)), word)
+            }
+        } finally {
+            Files.delete(path)
+        }
+    }
+
+    @Test
+    fun `test streaming writer rejects unsorted words`() {
+        val path = Files.createTempFile("streaming", ".trie")
+        try {
+            StreamingTrieWriter(path).use { writer ->
+                writer.addWord(1, "moon")
+                Assertions.assertThrows(IllegalArgumentException::class.java) { writer.addWord(2, "mauer") }
+            }
+        } finally {
+            Files.delete(path)
+        }
+    }
+
+    @Test
+    fun `test parallel writer creates the same bytes as the streaming writer`() {
+        val ids = (words + listOf("springfield", "spring", "ägypten", "ab", "mountain")).mapIndexed { id, word ->
+            prepare(word) to id
+        }
+        val sequentialPath = Files.createTempFile("sequential", ".trie")
+        val parallelPath = Files.createTempFile("parallel", ".trie")
+        val pool = ForkJoinPool(3)
+        try {
+            StreamingTrieWriter(sequentialPath).use { writer ->
+                ids.sortedWith(compareBy({ it.first }, { it.second })).forEach { writer.addWord(it.second, it.first) }
+            }
+            val partitions = ids.groupBy { it.first[0] }.toSortedMap().values.map { partitionIds ->
+                ExternalWordSorter(chunkSize = 2).also { sorter -> partitionIds.forEach { sorter.add(it.first, it.second) } }
+            }
+            writeTrieParallel(partitions, parallelPath, pool)
+            partitions.forEach { it.close() }
+
+            Assertions.assertArrayEquals(Files.readAllBytes(sequentialPath), Files.readAllBytes(parallelPath))
+        } finally {
+            pool.shutdown()
+            Files.delete(sequentialPath)
+            Files.delete(parallelPath)
+        }
+    }
+
+    @Test
+    fun `test external word sorter merges spilled chunks`() {
+        val pairs = listOf("wien" to 3, "a" to 9, "zürich" to 1, "wien" to 2, "mount" to 5, "a" to 4, "moon" to 7)
+        val sorted = mutableListOf<Pair<String, Int>>()
+
+        ExternalWordSorter(chunkSize = 2).use { sorter ->
+            pairs.forEach { sorter.add(it.first, it.second) }
+            sorter.forEachSorted { word, id -> sorted.add(word to id) }
+        }
+
+        Assertions.assertEquals(pairs.sortedWith(compareBy({ it.first }, { it.second })), sorted)
+    }
+
+    private fun readWords(node: TrieNode?): List<Int>? {
+        if (node == null || !node.isWord()) {
+            return null
+        }
+        val postings = PostingList()
+        node.readWords(postings)
+        val words = mutableListOf<Int>()
+        while (postings.hasNext()) {
+            words.add(postings.next())
+        }
+        return words
+    }
+
+    private fun testFindsAllWords(format: TrieFormat) {
+        val trie = createTrie(words, format)
+
+        words.forEachIndexed { id, word ->
+            val node = find(trie, prepare(word))
+            Assertions.assertNotNull(node, word)
+            Assertions.assertTrue(node!!.isWord(), word)
+            Assertions.assertEquals(id, node.getWord(), word)
+        }
+    }
+
+    private fun testContainsAllPlacesOfAWord(format: TrieFormat) {
+        val ids = listOf(3, 200, 201, 70000, 1_000_000_000)
+        val trie = createTrieWithIds(ids.map { it.toLong() to "springfield" } + (0L to "spring"), format)
+        val postings = PostingList()
+
+        val node = find(trie, "springfield")!!
+        node.readWords(postings)
+        val words = mutableListOf<Int>()
+        while (postings.hasNext()) {
+            words.add(postings.next())
+        }
+
+        Assertions.assertEquals(ids, words)
+        Assertions.assertEquals(3, node.getWord())
+        find(trie, "spring")!!.readWords(postings)
+        Assertions.assertEquals(0, postings.next())
+        Assertions.assertFalse(postings.hasNext())
+    }
+
+    private fun testDoesNotFindOtherWords(format: TrieFormat) {
+        val trie = createTrie(words, format)
+
+        Assertions.assertFalse(find(trie, "moun")!!.isWord())
+        Assertions.assertNull(find(trie, "mountains"))
+        Assertions.assertNull(find(trie, "b"))
+        Assertions.assertNull(find(trie, "zurich"))
+    }
+
+    private fun find(trie: Trie, word: String): TrieNode? {
+        var node: TrieNode? = trie.getRoot()
+        for (char in word) {
+            node = node?.getChild(char)
+        }
+        return node
+    }
+
+    private fun createTrie(words: List<String>, format: TrieFormat): Trie {
+        return createTrieWithIds(words.mapIndexed { id, word -> id.toLong() to prepare(word) }, format)
+    }
+
+    private fun createTrieWithIds(words: Collection<Pair<Long, String>>, format: TrieFormat): Trie {
+        val trie = createTrie(words)
+        val out = ByteArrayOutputStream()
+        trie.calculateOffsets(if (format == TrieFormat.LINKED) TrieFormat.LINKED else TrieFormat.INDEXED)
+        saveTrie(out, trie)
+        if (format == TrieFormat.DOUBLE_ARRAY) {
+            val doubleArrayTrie = CreateDoubleArrayTrie(IndexedTrie(ByteBuffer.wrap(out.toByteArray())))
+            out.reset()
+            saveDoubleArrayTrie(out, doubleArrayTrie)
+        } else if (format == TrieFormat.DAWG) {
+            val dawg = CreateDawg(IndexedTrie(ByteBuffer.wrap(out.toByteArray())))
+            out.reset()
+            saveDawg(out, dawg)
+        }
+        return Trie.load(out.toByteArray())
+    }
+}